@@ -102,8 +102,20 @@ public class ADNList extends ListActivity {
 
     private void query() {
         Uri uri = resolveIntent();
+
+        // Show the last known SIM contacts right away, if we have them;
+        // the query below brings them up to date.
+        if (mCursor == null && AdnSnapshot.ADN_URI.equals(uri)) {
+            Cursor snapshot = AdnSnapshot.newCursor();
+            if (snapshot != null) {
+                if (DBG) log("query: showing snapshot of " + snapshot.getCount() + " records");
+                mCursor = snapshot;
+                setAdapter();
+            }
+        }
+
         if (DBG) log("query: starting an async query");
-        mQueryHandler.startQuery(QUERY_TOKEN, null, uri, COLUMN_NAMES,
+        mQueryHandler.startQuery(QUERY_TOKEN, uri, uri, COLUMN_NAMES,
                 null, null, null);
         displayProgress(true);
     }
@@ -174,6 +186,10 @@ public class ADNList extends ListActivity {
         @Override
         protected void onQueryComplete(int token, Object cookie, Cursor c) {
             if (DBG) log("onQueryComplete: cursor.count=" + c.getCount());
+            // The cookie is the Uri that was queried.
+            if (AdnSnapshot.ADN_URI.equals(cookie)) {
+                AdnSnapshot.update(c);
+            }
             mCursor = c;
             setAdapter();
             displayProgress(false);
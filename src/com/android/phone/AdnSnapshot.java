@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * In-memory copy of the SIM's ADN (abbreviated dialing number) records,
+ * as last read from content://icc/adn.
+ *
+ * Reading the ADN records from the SIM takes a long time, and used to
+ * happen every time the SIM contacts list came up, including for the
+ * "N#" dialer shortcut (see SpecialCharSequenceMgr.handleAdnEntry()).
+ * ADNList shows this snapshot right away while it re-reads the SIM in the
+ * background, so the requested entry is on screen immediately.
+ *
+ * The snapshot is dropped whenever the SIM state changes, since the
+ * records may then belong to a different SIM.
+ *
+ * All methods are thread-safe.
+ */
+public class AdnSnapshot {
+    private static final String LOG_TAG = "AdnSnapshot";
+    private static final boolean DBG = false;
+
+    static final Uri ADN_URI = Uri.parse("content://icc/adn");
+
+    private static String[] sColumns;
+    private static String[][] sRows;
+
+    private AdnSnapshot() {
+    }
+
+    /**
+     * Replaces the snapshot with the contents of a cursor returned by a
+     * query of ADN_URI.  The cursor is left positioned before the first
+     * row.
+     */
+    static void update(Cursor c) {
+        if (c == null) {
+            return;
+        }
+        String[] columns = c.getColumnNames();
+        String[][] rows = new String[c.getCount()][];
+        int row = 0;
+        c.moveToPosition(-1);
+        while (c.moveToNext() && row < rows.length) {
+            String[] values = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = c.getString(i);
+            }
+            rows[row++] = values;
+        }
+        c.moveToPosition(-1);
+
+        synchronized (AdnSnapshot.class) {
+            sColumns = columns;
+            sRows = rows;
+        }
+        if (DBG) log("update: " + rows.length + " records");
+    }
+
+    /**
+     * @return a new cursor over the snapshot, or null if there's no
+     *     current snapshot.
+     */
+    static Cursor newCursor() {
+        String[] columns;
+        String[][] rows;
+        synchronized (AdnSnapshot.class) {
+            columns = sColumns;
+            rows = sRows;
+        }
+        if (rows == null) {
+            return null;
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+        for (String[] values : rows) {
+            if (values != null) cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops the snapshot.  Called when the SIM state changes.
+     */
+    static synchronized void invalidate() {
+        if (DBG) log("invalidate");
+        sColumns = null;
+        sRows = null;
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
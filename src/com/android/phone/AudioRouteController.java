@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.util.Log;
+
+import com.android.internal.telephony.Call;
+import com.android.internal.telephony.CallManager;
+import com.android.internal.telephony.Phone;
+
+import java.io.PrintWriter;
+
+/**
+ * Single owner of the in-call audio route (audio mode, speakerphone,
+ * microphone mute, noise suppression and bluetooth SCO) for the phone
+ * process.
+ *
+ * Every AudioManager call is a binder IPC into the system process, and
+ * the various call state handlers used to issue the same settings
+ * several times per state change.  This class remembers the route we
+ * last applied and drops requests that wouldn't change anything.
+ *
+ * Related changes can be grouped between beginTransaction() and
+ * endTransaction(); they're then applied once, in a fixed order (mode,
+ * SCO, speaker, mute, noise suppression), when the outermost transaction
+ * ends.  This avoids audible glitches from intermediate routes when a
+ * call is answered, swapped or merged.
+ *
+ * All methods are synchronized, since bluetooth audio changes may come
+ * in from binder threads.
+ */
+public class AudioRouteController {
+    private static final String LOG_TAG = "AudioRouteController";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    // Indices into the per-operation statistics arrays.
+    private static final int OP_AUDIO_MODE = 0;
+    private static final int OP_SCO = 1;
+    private static final int OP_SPEAKER = 2;
+    private static final int OP_MUTE = 3;
+    private static final int OP_NOISE_SUPPRESSION = 4;
+    private static final int NUM_OPS = 5;
+    private static final String[] OP_NAMES = {
+        "audioMode", "sco", "speaker", "mute", "noiseSuppression"
+    };
+
+    // Tri-state values for the cached settings; UNKNOWN means we have to
+    // ask (or tell) the AudioManager the next time.
+    private static final int UNKNOWN = -1;
+    private static final int OFF = 0;
+    private static final int ON = 1;
+
+    private final AudioManager mAudioManager;
+
+    // Route as last applied to the AudioManager.
+    private int mSpeaker = UNKNOWN;
+    private int mMute = UNKNOWN;
+    private int mNoiseSuppression = UNKNOWN;
+    private int mSco = UNKNOWN;
+    private Phone.State mAudioModeState;
+    private Phone mAudioModePhone;
+    private int mAudioMode = AudioManager.MODE_INVALID;
+
+    // Requested route while a transaction is open.
+    private int mTransactionDepth;
+    private int mPendingSpeaker = UNKNOWN;
+    private int mPendingMute = UNKNOWN;
+    private int mPendingNoiseSuppression = UNKNOWN;
+    private int mPendingSco = UNKNOWN;
+    private CallManager mPendingAudioModeCM;
+
+    // Statistics, reported by dump().
+    private final int[] mIssued = new int[NUM_OPS];
+    private final int[] mSkipped = new int[NUM_OPS];
+    private final long[] mTotalLatencyNanos = new long[NUM_OPS];
+    private final long[] mMaxLatencyNanos = new long[NUM_OPS];
+
+    public AudioRouteController(Context context) {
+        mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    /**
+     * Starts grouping route changes.  Transactions may be nested; the
+     * changes are applied when the outermost one ends.
+     */
+    synchronized void beginTransaction() {
+        mTransactionDepth++;
+    }
+
+    /**
+     * Ends a transaction started with beginTransaction(), applying all
+     * the route changes requested since the outermost begin.
+     */
+    synchronized void endTransaction() {
+        if (mTransactionDepth == 0) {
+            Log.w(LOG_TAG, "endTransaction() without beginTransaction()");
+            return;
+        }
+        if (--mTransactionDepth > 0) {
+            return;
+        }
+
+        if (mPendingAudioModeCM != null) {
+            applyAudioMode(mPendingAudioModeCM);
+            mPendingAudioModeCM = null;
+        }
+        if (mPendingSco != UNKNOWN) {
+            applySco(mPendingSco == ON);
+            mPendingSco = UNKNOWN;
+        }
+        if (mPendingSpeaker != UNKNOWN) {
+            applySpeaker(mPendingSpeaker == ON);
+            mPendingSpeaker = UNKNOWN;
+        }
+        if (mPendingMute != UNKNOWN) {
+            applyMute(mPendingMute == ON);
+            mPendingMute = UNKNOWN;
+        }
+        if (mPendingNoiseSuppression != UNKNOWN) {
+            applyNoiseSuppression(mPendingNoiseSuppression == ON);
+            mPendingNoiseSuppression = UNKNOWN;
+        }
+    }
+
+    /**
+     * Sets the audio mode per the current state of the CallManager.
+     * This is a no-op if the phone state and the phone the mode is
+     * chosen for haven't changed since the last time the mode was set.
+     */
+    synchronized void setAudioMode(CallManager cm) {
+        if (mTransactionDepth > 0) {
+            mPendingAudioModeCM = cm;
+        } else {
+            applyAudioMode(cm);
+        }
+    }
+
+    synchronized void setSpeakerphoneOn(boolean on) {
+        if (mTransactionDepth > 0) {
+            mPendingSpeaker = on ? ON : OFF;
+        } else {
+            applySpeaker(on);
+        }
+    }
+
+    synchronized void setMicrophoneMute(boolean on) {
+        if (mTransactionDepth > 0) {
+            mPendingMute = on ? ON : OFF;
+        } else {
+            applyMute(on);
+        }
+    }
+
+    synchronized void setNoiseSuppressionOn(boolean on) {
+        if (mTransactionDepth > 0) {
+            mPendingNoiseSuppression = on ? ON : OFF;
+        } else {
+            applyNoiseSuppression(on);
+        }
+    }
+
+    synchronized void setBluetoothScoOn(boolean on) {
+        if (mTransactionDepth > 0) {
+            mPendingSco = on ? ON : OFF;
+        } else {
+            applySco(on);
+        }
+    }
+
+    /**
+     * @return the requested speakerphone state, including any change
+     *     that's pending in an open transaction.
+     */
+    synchronized boolean isSpeakerphoneOn() {
+        if (mPendingSpeaker != UNKNOWN) return mPendingSpeaker == ON;
+        if (mSpeaker == UNKNOWN) {
+            mSpeaker = mAudioManager.isSpeakerphoneOn() ? ON : OFF;
+        }
+        return mSpeaker == ON;
+    }
+
+    /**
+     * @return the requested microphone mute state, including any change
+     *     that's pending in an open transaction.
+     */
+    synchronized boolean isMicrophoneMute() {
+        if (mPendingMute != UNKNOWN) return mPendingMute == ON;
+        if (mMute == UNKNOWN) {
+            mMute = mAudioManager.isMicrophoneMute() ? ON : OFF;
+        }
+        return mMute == ON;
+    }
+
+    /**
+     * @return the requested noise suppression state, including any
+     *     change that's pending in an open transaction.
+     */
+    synchronized boolean isNoiseSuppressionOn() {
+        if (mPendingNoiseSuppression != UNKNOWN) return mPendingNoiseSuppression == ON;
+        if (mNoiseSuppression == UNKNOWN) {
+            String noiseSuppression = mAudioManager.getParameters("noise_suppression");
+            if (DBG) log("isNoiseSuppressionOn: " + noiseSuppression);
+            mNoiseSuppression = noiseSuppression.contains("off") ? OFF : ON;
+        }
+        return mNoiseSuppression == ON;
+    }
+
+    /**
+     * Forgets everything we know about the current route, including the
+     * audio mode.  Called when the phone goes idle, since other apps (and
+     * the bluetooth headset service) are free to change the audio mode,
+     * speaker, mute and SCO settings while we're not in a call.
+     */
+    synchronized void invalidate() {
+        mSpeaker = UNKNOWN;
+        mMute = UNKNOWN;
+        mNoiseSuppression = UNKNOWN;
+        mSco = UNKNOWN;
+        mAudioModeState = null;
+        mAudioModePhone = null;
+    }
+
+    private void applyAudioMode(CallManager cm) {
+        Phone.State state = cm.getState();
+        // The phone CallManager.setAudioMode() picks the mode for: the
+        // background phone when there's no foreground call (say, a SIP
+        // call left on hold after the active GSM call hangs up.)
+        Phone modePhone = (cm.getActiveFgCallState() == Call.State.IDLE)
+                ? cm.getBgPhone() : cm.getFgPhone();
+        if (state == mAudioModeState && modePhone == mAudioModePhone) {
+            if (DBG) log("setAudioMode: no change (" + state + ")");
+            mSkipped[OP_AUDIO_MODE]++;
+            return;
+        }
+
+        long start = System.nanoTime();
+        cm.setAudioMode();
+        int mode = mAudioManager.getMode();
+        recordLatency(OP_AUDIO_MODE, start);
+
+        if (mode != mAudioMode) {
+            CallStateRecorder.record(CallStateRecorder.EVENT_AUDIO_MODE, mAudioMode, mode);
+        }
+        if (state == Phone.State.IDLE) {
+            invalidate();
+        }
+        // Remembered even when idle, so repeated IDLE requests are still
+        // skipped; the next call's state never matches it.
+        mAudioModeState = state;
+        mAudioModePhone = modePhone;
+        mAudioMode = mode;
+    }
+
+    private void applySpeaker(boolean on) {
+        int value = on ? ON : OFF;
+        if (mSpeaker == value) {
+            mSkipped[OP_SPEAKER]++;
+            return;
+        }
+        long start = System.nanoTime();
+        mAudioManager.setSpeakerphoneOn(on);
+        recordLatency(OP_SPEAKER, start);
+        mSpeaker = value;
+        CallStateRecorder.record(CallStateRecorder.EVENT_SPEAKER, value);
+    }
+
+    private void applyMute(boolean on) {
+        int value = on ? ON : OFF;
+        if (mMute == value) {
+            mSkipped[OP_MUTE]++;
+            return;
+        }
+        long start = System.nanoTime();
+        mAudioManager.setMicrophoneMute(on);
+        recordLatency(OP_MUTE, start);
+        mMute = value;
+    }
+
+    private void applyNoiseSuppression(boolean on) {
+        int value = on ? ON : OFF;
+        if (mNoiseSuppression == value) {
+            mSkipped[OP_NOISE_SUPPRESSION]++;
+            return;
+        }
+        long start = System.nanoTime();
+        mAudioManager.setParameters(on ? "noise_suppression=auto" : "noise_suppression=off");
+        recordLatency(OP_NOISE_SUPPRESSION, start);
+        mNoiseSuppression = value;
+    }
+
+    private void applySco(boolean on) {
+        int value = on ? ON : OFF;
+        if (mSco == value) {
+            mSkipped[OP_SCO]++;
+            return;
+        }
+        long start = System.nanoTime();
+        mAudioManager.setBluetoothScoOn(on);
+        recordLatency(OP_SCO, start);
+        mSco = value;
+    }
+
+    private void recordLatency(int op, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        mIssued[op]++;
+        mTotalLatencyNanos[op] += latency;
+        if (latency > mMaxLatencyNanos[op]) {
+            mMaxLatencyNanos[op] = latency;
+        }
+    }
+
+    /**
+     * Prints per-operation counts of issued and skipped AudioManager
+     * calls, along with their average and worst-case latency.
+     */
+    synchronized void dump(PrintWriter pw) {
+        pw.println("Audio route controller:");
+        for (int i = 0; i < NUM_OPS; i++) {
+            pw.println("  " + OP_NAMES[i] + ": issued=" + mIssued[i]
+                    + " skipped=" + mSkipped[i]
+                    + " avgUs=" + (mIssued[i] > 0 ? mTotalLatencyNanos[i] / mIssued[i] / 1000 : 0)
+                    + " maxUs=" + (mMaxLatencyNanos[i] / 1000));
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.pm.PackageManager;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Per-method and per-calling-UID statistics of the binder calls into a
+ * service, so we can tell which apps call which ITelephony methods (see
+ * PhoneInterfaceManager.onTransact()), how often, and how slowly.
+ *
+ * Recording a call is a few array updates under a lock, with no
+ * allocation except the first time a UID shows up.  Besides dump(), a
+ * compact summary of the busiest methods and UIDs is logged every
+ * SUMMARY_INTERVAL, from the first call after the interval has passed
+ * (so there is no timer, and nothing happens while nobody calls.)
+ *
+ * All methods are thread-safe.
+ */
+public class BinderCallStats {
+    private static final String LOG_TAG = "BinderCallStats";
+
+    // How often the summary is logged, in ms.
+    private static final long SUMMARY_INTERVAL = 30 * 60 * 1000;
+    // Methods and UIDs named in the summary.
+    private static final int SUMMARY_TOP = 3;
+
+    // Latency histogram bucket upper bounds, in us (most getters take
+    // well under a millisecond); the last bucket is
+    // open ended.
+    private static final long[] BUCKET_LIMITS = { 50, 200, 1000, 5000, 20000, 100000 };
+    private static final int NUM_BUCKETS = BUCKET_LIMITS.length + 1;
+
+    /** Calls from one UID, per method. */
+    private static class UidStats {
+        long totalMicros;
+        final int[] calls;
+        final int[] intervalCalls;
+
+        UidStats(int methods) {
+            calls = new int[methods];
+            intervalCalls = new int[methods];
+        }
+    }
+
+    private final String mName;
+    private final PackageManager mPackageManager;
+
+    // Method names, indexed by transaction code - FIRST_CALL_TRANSACTION;
+    // the last slot counts everything else (dump, unknown codes.)
+    private final String[] mMethodNames;
+
+    private final int[] mCalls;
+    private final long[] mTotalMicros;
+    private final long[] mMaxMicros;
+    private final int[][] mHistograms;
+    private final SparseArray<UidStats> mUids = new SparseArray<UidStats>();
+
+    // Calls since the last summary.
+    private final int[] mIntervalCalls;
+    private long mIntervalStart = SystemClock.uptimeMillis();
+
+    /**
+     * @param name the service name, for the summary log and dump()
+     * @param stubClass the AIDL generated Stub class of the service,
+     *     where the method names are found (its TRANSACTION_* fields)
+     */
+    public BinderCallStats(String name, Class<?> stubClass, PackageManager pm) {
+        mName = name;
+        mPackageManager = pm;
+        mMethodNames = getMethodNames(stubClass);
+        int methods = mMethodNames.length;
+        mCalls = new int[methods];
+        mTotalMicros = new long[methods];
+        mMaxMicros = new long[methods];
+        mHistograms = new int[methods][NUM_BUCKETS];
+        mIntervalCalls = new int[methods];
+    }
+
+    /**
+     * Looks up the method names once, from the generated Stub's
+     * "static final int TRANSACTION_<method>" fields.
+     */
+    private static String[] getMethodNames(Class<?> stubClass) {
+        int max = -1;
+        Field[] fields = stubClass.getDeclaredFields();
+        for (Field f : fields) {
+            if (isTransactionField(f)) {
+                try {
+                    f.setAccessible(true);
+                    max = Math.max(max, f.getInt(null) - IBinder.FIRST_CALL_TRANSACTION);
+                } catch (IllegalAccessException e) {
+                    // Leave it out.
+                }
+            }
+        }
+        String[] names = new String[max + 2];
+        for (Field f : fields) {
+            if (isTransactionField(f)) {
+                try {
+                    int index = f.getInt(null) - IBinder.FIRST_CALL_TRANSACTION;
+                    if (index >= 0) {
+                        names[index] = f.getName().substring("TRANSACTION_".length());
+                    }
+                } catch (IllegalAccessException e) {
+                    // Leave it out.
+                }
+            }
+        }
+        names[names.length - 1] = "other";
+        return names;
+    }
+
+    private static boolean isTransactionField(Field f) {
+        return f.getName().startsWith("TRANSACTION_")
+                && Modifier.isStatic(f.getModifiers())
+                && f.getType() == int.class;
+    }
+
+    /**
+     * Records one call.
+     * @param code the transaction code
+     * @param uid the calling UID
+     * @param micros how long the call took, in us
+     */
+    void record(int code, int uid, long micros) {
+        int method = code - IBinder.FIRST_CALL_TRANSACTION;
+        if (method < 0 || method >= mMethodNames.length - 1 || mMethodNames[method] == null) {
+            method = mMethodNames.length - 1;
+        }
+
+        String summary = null;
+        synchronized (this) {
+            mCalls[method]++;
+            mTotalMicros[method] += micros;
+            if (micros > mMaxMicros[method]) mMaxMicros[method] = micros;
+            mHistograms[method][bucket(micros)]++;
+            mIntervalCalls[method]++;
+
+            UidStats uidStats = mUids.get(uid);
+            if (uidStats == null) {
+                uidStats = new UidStats(mMethodNames.length);
+                mUids.put(uid, uidStats);
+            }
+            uidStats.calls[method]++;
+            uidStats.intervalCalls[method]++;
+            uidStats.totalMicros += micros;
+
+            long now = SystemClock.uptimeMillis();
+            if (now - mIntervalStart >= SUMMARY_INTERVAL) {
+                summary = makeSummary(now);
+            }
+        }
+        if (summary != null) {
+            Log.i(LOG_TAG, summary);
+        }
+    }
+
+    /**
+     * Builds the summary line for the interval that just ended, and
+     * starts a new one, e.g.
+     * "phone: 1234 calls in 1800s; getCellLocation=900 getCallState=200 ...;
+     *  uid 10042=850 uid 10007=300 ..."
+     */
+    private String makeSummary(long now) {
+        int total = 0;
+        for (int c : mIntervalCalls) total += c;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(mName).append(": ").append(total).append(" calls in ")
+                .append((now - mIntervalStart) / 1000).append("s;");
+
+        // Busiest methods (selection, since SUMMARY_TOP is small.)
+        boolean[] picked = new boolean[mIntervalCalls.length];
+        for (int n = 0; n < SUMMARY_TOP; n++) {
+            int best = -1;
+            for (int i = 0; i < mIntervalCalls.length; i++) {
+                if (!picked[i] && mIntervalCalls[i] > 0
+                        && (best < 0 || mIntervalCalls[i] > mIntervalCalls[best])) {
+                    best = i;
+                }
+            }
+            if (best < 0) break;
+            picked[best] = true;
+            sb.append(' ').append(mMethodNames[best]).append('=').append(mIntervalCalls[best]);
+        }
+        sb.append(';');
+
+        // Busiest UIDs.
+        int uids = mUids.size();
+        int[] uidTotals = new int[uids];
+        for (int i = 0; i < uids; i++) {
+            UidStats s = mUids.valueAt(i);
+            for (int c : s.intervalCalls) uidTotals[i] += c;
+        }
+        boolean[] pickedUid = new boolean[uids];
+        for (int n = 0; n < SUMMARY_TOP; n++) {
+            int best = -1;
+            for (int i = 0; i < uids; i++) {
+                if (!pickedUid[i] && uidTotals[i] > 0
+                        && (best < 0 || uidTotals[i] > uidTotals[best])) {
+                    best = i;
+                }
+            }
+            if (best < 0) break;
+            pickedUid[best] = true;
+            sb.append(" uid ").append(mUids.keyAt(best)).append('=').append(uidTotals[best]);
+        }
+
+        // Start the next interval.
+        Arrays.fill(mIntervalCalls, 0);
+        for (int i = 0; i < uids; i++) {
+            Arrays.fill(mUids.valueAt(i).intervalCalls, 0);
+        }
+        mIntervalStart = now;
+        return sb.toString();
+    }
+
+    private static int bucket(long micros) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (micros < BUCKET_LIMITS[i]) return i;
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    /**
+     * Prints, for each method called so far, the call count and latency
+     * histogram; then for each calling UID (and its packages), the
+     * methods it called and how often.
+     *
+     * The statistics are copied under the lock, and the package names
+     * (a binder call into the system process) looked up outside it, so
+     * that incoming calls aren't held up in record() meanwhile.
+     */
+    void dump(PrintWriter pw) {
+        ArrayList<String> methodLines = new ArrayList<String>();
+        int[] uids;
+        String[] uidLines;
+        synchronized (this) {
+            for (int i = 0; i < mMethodNames.length; i++) {
+                if (mCalls[i] == 0) continue;
+                StringBuilder sb = new StringBuilder();
+                for (int b = 0; b < NUM_BUCKETS; b++) {
+                    if (b > 0) sb.append(' ');
+                    sb.append(b < BUCKET_LIMITS.length ? "<" + BUCKET_LIMITS[b]
+                            : ">=" + BUCKET_LIMITS[b - 1]).append(':').append(mHistograms[i][b]);
+                }
+                methodLines.add("  " + mMethodNames[i] + ": calls=" + mCalls[i]
+                        + " avgUs=" + (mTotalMicros[i] / mCalls[i]) + " maxUs=" + mMaxMicros[i]
+                        + " [" + sb + "]");
+            }
+            uids = new int[mUids.size()];
+            uidLines = new String[uids.length];
+            for (int u = 0; u < uids.length; u++) {
+                uids[u] = mUids.keyAt(u);
+                UidStats s = mUids.valueAt(u);
+                StringBuilder sb = new StringBuilder();
+                sb.append(s.totalMicros / 1000).append("ms;");
+                for (int i = 0; i < mMethodNames.length; i++) {
+                    if (s.calls[i] > 0) {
+                        sb.append(' ').append(mMethodNames[i]).append('=').append(s.calls[i]);
+                    }
+                }
+                uidLines[u] = sb.toString();
+            }
+        }
+
+        pw.println("Binder calls (" + mName + "):");
+        for (String line : methodLines) {
+            pw.println(line);
+        }
+        for (int u = 0; u < uids.length; u++) {
+            String[] packages = mPackageManager.getPackagesForUid(uids[u]);
+            pw.println("  uid " + uids[u]
+                    + (packages != null ? " " + Arrays.toString(packages) : "")
+                    + ": " + uidLines[u]);
+        }
+    }
+}
@@ -82,6 +82,7 @@ public class BluetoothHandsfree {
     private ScoSocket mConnectedSco;
 
     private AudioManager mAudioManager;
+    private AudioRouteController mAudioRoute;
     private PowerManager mPowerManager;
 
     private boolean mPendingSco;  // waiting for a2dp sink to suspend before establishing SCO
@@ -200,6 +201,7 @@ public class BluetoothHandsfree {
         mUserWantsAudio = true;
         mPhonebook = new BluetoothAtPhonebook(mContext, this);
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        mAudioRoute = PhoneApp.getInstance().getAudioRouteController();
         cdmaSetSecondCallState(false);
 
         if (bluetoothCapable) {
@@ -974,7 +976,7 @@ public class BluetoothHandsfree {
                                 mConnectedSco == null) {
                             Log.i(TAG, "Routing audio for incoming SCO connection");
                             mConnectedSco = (ScoSocket)msg.obj;
-                            mAudioManager.setBluetoothScoOn(true);
+                            mAudioRoute.setBluetoothScoOn(true);
                             broadcastAudioStateIntent(BluetoothHeadset.AUDIO_STATE_CONNECTED,
                                     mHeadset.getRemoteDevice());
                         } else {
@@ -990,7 +992,7 @@ public class BluetoothHandsfree {
                             mConnectedSco == null) {
                         if (VDBG) log("Routing audio for outgoing SCO conection");
                         mConnectedSco = (ScoSocket)msg.obj;
-                        mAudioManager.setBluetoothScoOn(true);
+                        mAudioRoute.setBluetoothScoOn(true);
                         broadcastAudioStateIntent(BluetoothHeadset.AUDIO_STATE_CONNECTED,
                                 mHeadset.getRemoteDevice());
                     } else if (msg.arg1 == ScoSocket.STATE_CONNECTED) {
@@ -1004,7 +1006,7 @@ public class BluetoothHandsfree {
                     if (mConnectedSco == (ScoSocket)msg.obj) {
                         mConnectedSco.close();
                         mConnectedSco = null;
-                        mAudioManager.setBluetoothScoOn(false);
+                        mAudioRoute.setBluetoothScoOn(false);
                         broadcastAudioStateIntent(BluetoothHeadset.AUDIO_STATE_DISCONNECTED,
                                mHeadset.getRemoteDevice());
                     } else if (mOutgoingSco == (ScoSocket)msg.obj) {
@@ -1053,6 +1055,7 @@ public class BluetoothHandsfree {
 
     private void broadcastAudioStateIntent(int state, BluetoothDevice device) {
         if (VDBG) log("broadcastAudioStateIntent(" + state + ")");
+        CallStateRecorder.record(CallStateRecorder.EVENT_BT_AUDIO, state);
         Intent intent = new Intent(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED);
         intent.putExtra(BluetoothHeadset.EXTRA_AUDIO_STATE, state);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
@@ -1171,7 +1174,7 @@ public class BluetoothHandsfree {
             }
             mConnectedSco.close();
             mConnectedSco = null;
-            mAudioManager.setBluetoothScoOn(false);
+            mAudioRoute.setBluetoothScoOn(false);
             broadcastAudioStateIntent(BluetoothHeadset.AUDIO_STATE_DISCONNECTED, device);
         }
         if (mOutgoingSco != null) {
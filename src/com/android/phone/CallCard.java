@@ -52,7 +52,7 @@ import java.util.List;
  */
 public class CallCard extends FrameLayout
         implements CallTime.OnTickListener, CallerInfoAsyncQuery.OnQueryCompleteListener,
-                   ContactsAsyncHelper.OnImageLoadCompleteListener, View.OnClickListener {
+                   ContactPhotoCache.OnPhotoLoadCompleteListener, View.OnClickListener {
     private static final String LOG_TAG = "CallCard";
     private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
 
@@ -589,11 +589,10 @@ public class CallCard extends FrameLayout
     }
 
     /**
-     * Implemented for ContactsAsyncHelper.OnImageLoadCompleteListener interface.
+     * Implemented for ContactPhotoCache.OnPhotoLoadCompleteListener interface.
      * make sure that the call state is reflected after the image is loaded.
      */
-    public void onImageLoadComplete(int token, Object cookie, ImageView iView,
-            boolean imagePresent){
+    public void onPhotoLoadComplete(Object cookie, ImageView iView, boolean photoPresent) {
         if (cookie != null) {
             updatePhotoForCallState((Call) cookie);
         }
@@ -1152,8 +1151,8 @@ public class CallCard extends FrameLayout
         } else if (!showCachedImage(mPhoto, info)) {
             // Load the image with a callback to update the image state.
             // Use the default unknown picture while the query is running.
-            ContactsAsyncHelper.updateImageViewWithContactPhotoAsync(
-                info, 0, this, call, getContext(), mPhoto, personUri, R.drawable.picture_unknown);
+            mApplication.getContactPhotoCache().loadPhoto(info, personUri, mPhoto,
+                    R.drawable.picture_unknown, R.drawable.picture_unknown, this, call);
         }
         // And no matter what, on all devices, we never see the "manage
         // conference" button in this state.
@@ -1349,8 +1348,8 @@ public class CallCard extends FrameLayout
                     if (!PhoneUtils.isConferenceCall(call)) {
                         if (!showCachedImage(mPhoto, ci) && (mPhotoTracker.getPhotoState() ==
                                 ContactsAsyncHelper.ImageTracker.DISPLAY_DEFAULT)) {
-                            ContactsAsyncHelper.updateImageViewWithContactPhotoAsync(ci,
-                                    getContext(), mPhoto, mPhotoTracker.getPhotoUri(), -1);
+                            mApplication.getContactPhotoCache().loadPhoto(ci,
+                                    mPhotoTracker.getPhotoUri(), mPhoto, -1, -1, null, null);
                             mPhotoTracker.setPhotoState(
                                     ContactsAsyncHelper.ImageTracker.DISPLAY_IMAGE);
                         }
@@ -1347,6 +1347,9 @@ public class CallFeaturesSetting extends PreferenceActivity
         if (DBG) log("Creating activity");
         mPhone = PhoneFactory.getDefaultPhone();
 
+        // The preference defaults are set in the deferred startup phase.
+        PhoneApp.getInstance().ensureStartupComplete();
+
         addPreferencesFromResource(R.xml.call_feature_setting);
 
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
@@ -28,6 +28,13 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
     private int mButtonClicked;
     private int mServiceClass;
     private MyHandler mHandler = new MyHandler();
+    // True while a query started from cached values is outstanding; see
+    // init().  Cleared when a set is sent, which makes the response of that
+    // query stale.
+    private boolean mReconciling;
+    // True if a set was sent while that query was outstanding, so that its
+    // response must be ignored.
+    private boolean mDropReconcileResponse;
     int reason;
     Phone phone;
     CallForwardInfo callForwardInfo;
@@ -57,6 +64,23 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
     void init(TimeConsumingPreferenceListener listener, boolean skipReading) {
         tcpListener = listener;
         if (!skipReading) {
+            long ttl = getContext().getResources().getInteger(
+                    R.integer.call_forward_cache_ttl_ms);
+            CallForwardInfo[] cached = CallForwardInfoCache.get(reason, ttl);
+            if (cached != null) {
+                // Show what we read last time right away, and check it
+                // against the network without the busy dialog.
+                if (DBG) Log.d(LOG_TAG, "init: showing cached values, reason=" + reason);
+                handleCallForwardInfos(cached);
+                updateSummaryText();
+                mReconciling = true;
+                phone.getCallForwardingOption(reason,
+                        mHandler.obtainMessage(MyHandler.MESSAGE_GET_CF,
+                                // unused in this case
+                                CommandsInterface.CF_ACTION_DISABLE,
+                                MyHandler.MESSAGE_GET_CF, null));
+                return;
+            }
             phone.getCallForwardingOption(reason,
                     mHandler.obtainMessage(MyHandler.MESSAGE_GET_CF,
                             // unused in this case
@@ -103,6 +127,11 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
                 // Display no forwarding number while we're waiting for
                 // confirmation
                 setSummaryOn("");
+                CallForwardInfoCache.invalidate(reason);
+                if (mReconciling) {
+                    mReconciling = false;
+                    mDropReconcileResponse = true;
+                }
 
                 // the interface of Phone.setCallForwardingOption has error:
                 // should be action, reason...
@@ -129,6 +158,24 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
         setPhoneNumber(callForwardInfo.number);
     }
 
+    /**
+     * Shows the entry of a query result that matches our service class.
+     * @return the entry, or null if there is none.
+     */
+    private CallForwardInfo handleCallForwardInfos(CallForwardInfo[] cfInfoArray) {
+        CallForwardInfo result = null;
+        for (int i = 0, length = cfInfoArray.length; i < length; i++) {
+            if (DBG) Log.d(LOG_TAG, "handleCallForwardInfos, cfInfoArray[" + i + "]="
+                    + cfInfoArray[i]);
+            if ((mServiceClass & cfInfoArray[i].serviceClass) != 0) {
+                // corresponding class
+                result = cfInfoArray[i];
+                handleCallForwardResult(result);
+            }
+        }
+        return result;
+    }
+
     private void updateSummaryText() {
         if (isToggled()) {
             CharSequence summaryOn;
@@ -175,9 +222,30 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
 
             AsyncResult ar = (AsyncResult) msg.obj;
 
+            if (mDropReconcileResponse && msg.arg2 == MESSAGE_GET_CF) {
+                // The settings were changed since this query was sent; the
+                // query following the set will show the new ones.
+                if (DBG) Log.d(LOG_TAG, "handleGetCFResponse: dropping stale reconcile response");
+                mDropReconcileResponse = false;
+                return;
+            }
+
+            boolean reconciling = mReconciling && msg.arg2 == MESSAGE_GET_CF;
+            mReconciling = false;
+            if (reconciling && (ar.exception != null
+                    || ((CallForwardInfo[]) ar.result).length == 0)) {
+                // Keep showing the cached values; they'll be read again
+                // the next time the screen is opened.
+                if (DBG) Log.d(LOG_TAG, "handleGetCFResponse: reconcile failed: "
+                        + ar.exception);
+                CallForwardInfoCache.invalidate(reason);
+                return;
+            }
+
             callForwardInfo = null;
             if (ar.exception != null) {
                 if (DBG) Log.d(LOG_TAG, "handleGetCFResponse: ar.exception=" + ar.exception);
+                CallForwardInfoCache.invalidate(reason);
                 tcpListener.onException(CallForwardEditPreference.this,
                         (CommandException) ar.exception);
             } else {
@@ -190,40 +258,33 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
                     setEnabled(false);
                     tcpListener.onError(CallForwardEditPreference.this, RESPONSE_ERROR);
                 } else {
-                    for (int i = 0, length = cfInfoArray.length; i < length; i++) {
-                        if (DBG) Log.d(LOG_TAG, "handleGetCFResponse, cfInfoArray[" + i + "]="
-                                + cfInfoArray[i]);
-                        if ((mServiceClass & cfInfoArray[i].serviceClass) != 0) {
-                            // corresponding class
-                            CallForwardInfo info = cfInfoArray[i];
-                            handleCallForwardResult(info);
-
-                            // Show an alert if we got a success response but
-                            // with unexpected values.
-                            // Currently only handle the fail-to-disable case
-                            // since we haven't observed fail-to-enable.
-                            if (msg.arg2 == MESSAGE_SET_CF &&
-                                    msg.arg1 == CommandsInterface.CF_ACTION_DISABLE &&
-                                    info.status == 1) {
-                                CharSequence s;
-                                switch (reason) {
-                                    case CommandsInterface.CF_REASON_BUSY:
-                                        s = getContext().getText(R.string.disable_cfb_forbidden);
-                                        break;
-                                    case CommandsInterface.CF_REASON_NO_REPLY:
-                                        s = getContext().getText(R.string.disable_cfnry_forbidden);
-                                        break;
-                                    default: // not reachable
-                                        s = getContext().getText(R.string.disable_cfnrc_forbidden);
-                                }
-                                AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
-                                builder.setNeutralButton(R.string.close_dialog, null);
-                                builder.setTitle(getContext().getText(R.string.error_updating_title));
-                                builder.setMessage(s);
-                                builder.setCancelable(true);
-                                builder.create().show();
-                            }
+                    CallForwardInfoCache.put(reason, cfInfoArray);
+                    CallForwardInfo info = handleCallForwardInfos(cfInfoArray);
+
+                    // Show an alert if we got a success response but
+                    // with unexpected values.
+                    // Currently only handle the fail-to-disable case
+                    // since we haven't observed fail-to-enable.
+                    if (info != null && msg.arg2 == MESSAGE_SET_CF &&
+                            msg.arg1 == CommandsInterface.CF_ACTION_DISABLE &&
+                            info.status == 1) {
+                        CharSequence s;
+                        switch (reason) {
+                            case CommandsInterface.CF_REASON_BUSY:
+                                s = getContext().getText(R.string.disable_cfb_forbidden);
+                                break;
+                            case CommandsInterface.CF_REASON_NO_REPLY:
+                                s = getContext().getText(R.string.disable_cfnry_forbidden);
+                                break;
+                            default: // not reachable
+                                s = getContext().getText(R.string.disable_cfnrc_forbidden);
                         }
+                        AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
+                        builder.setNeutralButton(R.string.close_dialog, null);
+                        builder.setTitle(getContext().getText(R.string.error_updating_title));
+                        builder.setMessage(s);
+                        builder.setCancelable(true);
+                        builder.create().show();
                     }
                 }
             }
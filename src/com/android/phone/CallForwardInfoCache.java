@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.CallForwardInfo;
+
+/**
+ * The call forwarding settings last read from the network, per reason
+ * (CommandsInterface.CF_REASON_*), so that the call forwarding screen
+ * (GsmUmtsCallForwardOptions) can show them right away the next time it's
+ * opened, while CallForwardEditPreference checks them against the
+ * network in the background.
+ *
+ * An entry is dropped after the TTL passed to get(), when its setting is
+ * changed from the settings UI, and all of them when something else may
+ * have changed them: an MMI code completes, the network's call forwarding
+ * indicator changes, or the SIM changes state.
+ *
+ * Main thread only.
+ */
+/* package */ class CallForwardInfoCache {
+    private static final String LOG_TAG = "CallForwardInfoCache";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    private static class Entry {
+        final CallForwardInfo[] infos;
+        final long time;
+
+        Entry(CallForwardInfo[] infos) {
+            this.infos = infos;
+            this.time = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static final SparseArray<Entry> sEntries = new SparseArray<Entry>();
+
+    private CallForwardInfoCache() {
+    }
+
+    /**
+     * @return the result of the last successful query for this reason,
+     *     or null if there is none from the last ttlMillis ms.
+     */
+    static CallForwardInfo[] get(int reason, long ttlMillis) {
+        Entry entry = sEntries.get(reason);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.time >= ttlMillis) {
+            sEntries.remove(reason);
+            return null;
+        }
+        return entry.infos;
+    }
+
+    /**
+     * Remembers the result of a successful query.
+     */
+    static void put(int reason, CallForwardInfo[] infos) {
+        sEntries.put(reason, new Entry(infos));
+    }
+
+    /**
+     * Drops the entry for one reason, e.g. when it's being set.
+     */
+    static void invalidate(int reason) {
+        sEntries.remove(reason);
+    }
+
+    /**
+     * Drops all entries.
+     */
+    static void clear() {
+        if (DBG && sEntries.size() > 0) log("clear");
+        sEntries.clear();
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -364,6 +364,8 @@ public class CallNotifier extends Handler
         if (DBG) log("onNewRingingConnection(): " + c);
         Call ringing = c.getCall();
         Phone phone = ringing.getPhone();
+        CallStateRecorder.record(CallStateRecorder.EVENT_NEW_RINGING,
+                ringing.getState().ordinal());
 
         // Incoming calls are totally ignored if the device isn't provisioned yet
         boolean provisioned = Settings.Secure.getInt(mApplication.getContentResolver(),
@@ -688,6 +690,10 @@ public class CallNotifier extends Handler
     private void onPhoneStateChanged(AsyncResult r) {
         Phone.State state = mCM.getState();
         if (VDBG) log("onPhoneStateChanged: state = " + state);
+        CallStateRecorder.record(CallStateRecorder.EVENT_CALL_STATE, state.ordinal(),
+                CallStateRecorder.packCallStates(mCM.getActiveFgCallState().ordinal(),
+                        mCM.getFirstActiveBgCall().getState().ordinal(),
+                        mCM.getFirstActiveRingingCall().getState().ordinal()));
 
         // Turn status bar notifications on or off depending upon the state
         // of the phone.  Notification Alerts (audible or vibrating) should
@@ -755,7 +761,7 @@ public class CallNotifier extends Handler
 
         if (fgPhone.getPhoneType() == Phone.PHONE_TYPE_CDMA) {
             Connection c = fgPhone.getForegroundCall().getLatestConnection();
-            if ((c != null) && (PhoneNumberUtils.isEmergencyNumber(c.getAddress()))) {
+            if ((c != null) && (EmergencyNumberMatcher.isEmergencyNumber(c.getAddress()))) {
                 if (VDBG) log("onPhoneStateChanged: it is an emergency call.");
                 Call.State callState = fgPhone.getForegroundCall().getState();
                 if (mEmergencyTonePlayerVibrator == null) {
@@ -902,6 +908,10 @@ public class CallNotifier extends Handler
                 + ", incoming = " + c.isIncoming()
                 + ", date = " + c.getCreateTime());
         }
+        if (c != null) {
+            CallStateRecorder.record(CallStateRecorder.EVENT_DISCONNECT,
+                    c.getDisconnectCause().ordinal());
+        }
 
 
         mCdmaVoicePrivacyState = false;
@@ -1071,7 +1081,7 @@ public class CallNotifier extends Handler
                 final int presentation = getPresentation(c, ci);
 
                 if (phone.getPhoneType() == Phone.PHONE_TYPE_CDMA) {
-                    if ((PhoneNumberUtils.isEmergencyNumber(number))
+                    if ((EmergencyNumberMatcher.isEmergencyNumber(number))
                             && (mCurrentEmergencyToneState != EMERGENCY_TONE_OFF)) {
                         if (mEmergencyTonePlayerVibrator != null) {
                             mEmergencyTonePlayerVibrator.stop();
@@ -1090,7 +1100,7 @@ public class CallNotifier extends Handler
                 // Don't call isOtaSpNumber on GSM phones.
                 final boolean isOtaNumber = (phone.getPhoneType() == Phone.PHONE_TYPE_CDMA)
                         && phone.isOtaSpNumber(number);
-                final boolean isEmergencyNumber = PhoneNumberUtils.isEmergencyNumber(number);
+                final boolean isEmergencyNumber = EmergencyNumberMatcher.isEmergencyNumber(number);
 
                 // Don't put OTA or CDMA Emergency calls into call log
                 if (!(isOtaNumber || isEmergencyNumber && shouldNotlogEmergencyNumber)) {
@@ -1146,7 +1156,7 @@ public class CallNotifier extends Handler
 
             if (((mPreviousCdmaCallState == Call.State.DIALING)
                     || (mPreviousCdmaCallState == Call.State.ALERTING))
-                    && (!PhoneNumberUtils.isEmergencyNumber(number))
+                    && (!EmergencyNumberMatcher.isEmergencyNumber(number))
                     && (cause != Connection.DisconnectCause.INCOMING_MISSED )
                     && (cause != Connection.DisconnectCause.NORMAL)
                     && (cause != Connection.DisconnectCause.LOCAL)
@@ -1173,15 +1183,21 @@ public class CallNotifier extends Handler
     private void resetAudioStateAfterDisconnect() {
         if (VDBG) log("resetAudioStateAfterDisconnect()...");
 
-        if (mBluetoothHandsfree != null) {
-            mBluetoothHandsfree.audioOff();
-        }
+        AudioRouteController audioRoute = mApplication.getAudioRouteController();
+        audioRoute.beginTransaction();
+        try {
+            if (mBluetoothHandsfree != null) {
+                mBluetoothHandsfree.audioOff();
+            }
 
-        // call turnOnSpeaker() with state=false and store=true even if speaker
-        // is already off to reset user requested speaker state.
-        PhoneUtils.turnOnSpeaker(mApplication, false, true);
+            // call turnOnSpeaker() with state=false and store=true even if speaker
+            // is already off to reset user requested speaker state.
+            PhoneUtils.turnOnSpeaker(mApplication, false, true);
 
-        PhoneUtils.setAudioMode(mCM);
+            PhoneUtils.setAudioMode(mCM);
+        } finally {
+            audioRoute.endTransaction();
+        }
     }
 
     private void onMwiChanged(boolean visible) {
@@ -1200,6 +1216,7 @@ public class CallNotifier extends Handler
 
     private void onCfiChanged(boolean visible) {
         if (VDBG) log("onCfiChanged(): " + visible);
+        CallForwardInfoCache.clear();
         NotificationMgr.getDefault().updateCfi(visible);
     }
 
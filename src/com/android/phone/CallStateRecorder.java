@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemClock;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * Always-on "flight recorder" for call-related state in the phone process.
+ *
+ * Unlike PhoneUtils.dumpCallState() (which only logs a snapshot, and only
+ * when DBG is on), this keeps a fixed-size ring buffer of the most recent
+ * call state transitions, audio mode changes, ringer start/stop and
+ * bluetooth audio events, so that the recent history is available from
+ * "adb shell dumpsys phone" after the fact.
+ *
+ * All storage is preallocated; record() never allocates, so it's safe to
+ * call from any hot path.  Timestamps come from
+ * SystemClock.elapsedRealtime(), which is monotonic and keeps counting
+ * while the device is asleep.
+ */
+public class CallStateRecorder {
+    // Number of events kept in the ring buffer.  Each event takes 17
+    // bytes, so this is ~17K of memory, which comfortably covers the last
+    // several minutes of even a busy multi-call session.
+    private static final int CAPACITY = 1024;
+
+    // Event types.  These values are part of the binary export format;
+    // don't renumber them, only add new ones at the end.
+    static final int EVENT_CALL_STATE = 1;     // arg1 = Phone.State, arg2 = packed fg/bg/ringing
+    static final int EVENT_NEW_RINGING = 2;    // arg1 = Call.State of the ringing call
+    static final int EVENT_DISCONNECT = 3;     // arg1 = Connection.DisconnectCause
+    static final int EVENT_AUDIO_MODE = 4;     // arg1 = mode before, arg2 = mode after
+    static final int EVENT_RINGER_START = 5;
+    static final int EVENT_RINGER_STOP = 6;
+    static final int EVENT_BT_AUDIO = 7;       // arg1 = BluetoothHeadset.AUDIO_STATE_*
+    static final int EVENT_SPEAKER = 8;        // arg1 = 1 if on
+    static final int EVENT_MUTE = 9;           // arg1 = 1 if muted
+
+    // Header of the binary export: magic "CSR1", followed by the
+    // elapsedRealtime() at export time and the number of entries.
+    private static final int BINARY_MAGIC = 0x43535231;
+
+    private static final long[] sTimestamps = new long[CAPACITY];
+    private static final byte[] sTypes = new byte[CAPACITY];
+    private static final int[] sArg1 = new int[CAPACITY];
+    private static final int[] sArg2 = new int[CAPACITY];
+
+    // Index of the next slot to be written, and the number of valid slots.
+    private static int sHead;
+    private static int sCount;
+
+    /** This class is never instantiated. */
+    private CallStateRecorder() {
+    }
+
+    static void record(int type) {
+        record(type, 0, 0);
+    }
+
+    static void record(int type, int arg1) {
+        record(type, arg1, 0);
+    }
+
+    /**
+     * Appends an event to the ring buffer, overwriting the oldest entry
+     * if the buffer is full.
+     */
+    static void record(int type, int arg1, int arg2) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (sTimestamps) {
+            sTimestamps[sHead] = now;
+            sTypes[sHead] = (byte) type;
+            sArg1[sHead] = arg1;
+            sArg2[sHead] = arg2;
+            sHead = (sHead + 1) % CAPACITY;
+            if (sCount < CAPACITY) sCount++;
+        }
+    }
+
+    /**
+     * Packs the states of the foreground, background and ringing calls
+     * into a single int (one byte per call, fg in the low byte) for use as
+     * arg2 of an EVENT_CALL_STATE event.
+     */
+    static int packCallStates(int fgState, int bgState, int ringingState) {
+        return (fgState & 0xff) | ((bgState & 0xff) << 8) | ((ringingState & 0xff) << 16);
+    }
+
+    /**
+     * Dumps the recorder contents in human readable form, oldest first.
+     * Each line shows the age of the event relative to now.
+     */
+    static void dump(PrintWriter pw) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (sTimestamps) {
+            pw.println("Call state history (" + sCount + "/" + CAPACITY + " events):");
+            int index = (sHead - sCount + CAPACITY) % CAPACITY;
+            for (int i = 0; i < sCount; i++) {
+                pw.print("  -");
+                pw.print(now - sTimestamps[index]);
+                pw.print("ms ");
+                pw.print(eventToString(sTypes[index]));
+                pw.print(' ');
+                pw.print(sArg1[index]);
+                pw.print(' ');
+                pw.println(sArg2[index]);
+                index = (index + 1) % CAPACITY;
+            }
+        }
+    }
+
+    /**
+     * Writes the recorder contents in a compact big-endian binary format:
+     * the header (magic, export timestamp, entry count) followed by one
+     * 17-byte record (timestamp, type, arg1, arg2) per event, oldest first.
+     */
+    static void writeBinary(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        synchronized (sTimestamps) {
+            data.writeInt(BINARY_MAGIC);
+            data.writeLong(SystemClock.elapsedRealtime());
+            data.writeInt(sCount);
+            int index = (sHead - sCount + CAPACITY) % CAPACITY;
+            for (int i = 0; i < sCount; i++) {
+                data.writeLong(sTimestamps[index]);
+                data.writeByte(sTypes[index]);
+                data.writeInt(sArg1[index]);
+                data.writeInt(sArg2[index]);
+                index = (index + 1) % CAPACITY;
+            }
+        }
+        data.flush();
+    }
+
+    private static String eventToString(int type) {
+        switch (type) {
+            case EVENT_CALL_STATE: return "CALL_STATE";
+            case EVENT_NEW_RINGING: return "NEW_RINGING";
+            case EVENT_DISCONNECT: return "DISCONNECT";
+            case EVENT_AUDIO_MODE: return "AUDIO_MODE";
+            case EVENT_RINGER_START: return "RINGER_START";
+            case EVENT_RINGER_STOP: return "RINGER_STOP";
+            case EVENT_BT_AUDIO: return "BT_AUDIO";
+            case EVENT_SPEAKER: return "SPEAKER";
+            case EVENT_MUTE: return "MUTE";
+            default: return String.valueOf(type);
+        }
+    }
+}
@@ -18,8 +18,6 @@ package com.android.phone;
 
 import android.content.Context;
 import android.os.Debug;
-import android.os.Handler;
-import android.os.SystemClock;
 import com.android.internal.telephony.Call;
 import com.android.internal.telephony.Connection;
 import android.util.Log;
@@ -30,8 +28,11 @@ import java.util.List;
 /**
  * Helper class used to keep track of various "elapsed time" indications
  * in the Phone app, and also to start and stop tracing / profiling.
+ *
+ * The periodic updates come from the process-wide CallTimeTicker, so
+ * they're aligned with all the other elapsed time displays.
  */
-public class CallTime extends Handler {
+public class CallTime implements CallTimeTicker.TickListener {
     private static final String LOG_TAG = "PHONE/CallTime";
     private static final boolean DBG = false;
     /* package */ static final boolean PROFILE = true;
@@ -43,10 +44,7 @@ public class CallTime extends Handler {
     private static int sProfileState = PROFILE_STATE_NONE;
 
     private Call mCall;
-    private long mLastReportedTime;
     private boolean mTimerRunning;
-    private long mInterval;
-    private PeriodicTimerCallback mTimerCallback;
     private OnTickListener mListener;
 
     interface OnTickListener {
@@ -55,7 +53,6 @@ public class CallTime extends Handler {
 
     public CallTime(OnTickListener listener) {
         mListener = listener;
-        mTimerCallback = new PeriodicTimerCallback();
     }
 
     /**
@@ -69,38 +66,22 @@ public class CallTime extends Handler {
     /* package */ void setActiveCallMode(Call call) {
         if (DBG) log("setActiveCallMode(" + call + ")...");
         mCall = call;
-
-        // How frequently should we update the UI?
-        mInterval = 1000;  // once per second
     }
 
     /* package */ void reset() {
         if (DBG) log("reset()...");
-        mLastReportedTime = SystemClock.uptimeMillis() - mInterval;
+        // Nothing to do: the shared ticker is always aligned to the
+        // wall-clock second, and periodicUpdateTimer() updates the
+        // display right away.
     }
 
     /* package */ void periodicUpdateTimer() {
         if (!mTimerRunning) {
             mTimerRunning = true;
 
-            long now = SystemClock.uptimeMillis();
-            long nextReport = mLastReportedTime + mInterval;
-
-            while (now >= nextReport) {
-                nextReport += mInterval;
-            }
-
-            if (DBG) log("periodicUpdateTimer() @ " + nextReport);
-            postAtTime(mTimerCallback, nextReport);
-            mLastReportedTime = nextReport;
-
-            if (mCall != null) {
-                Call.State state = mCall.getState();
-
-                if (state == Call.State.ACTIVE) {
-                    updateElapsedTime(mCall);
-                }
-            }
+            if (DBG) log("periodicUpdateTimer()...");
+            PhoneApp.getInstance().getCallTimeTicker().addListener(this);
+            updateActiveCall();
 
             if (PROFILE && isTraceReady()) {
                 startTrace();
@@ -112,10 +93,30 @@ public class CallTime extends Handler {
 
     /* package */ void cancelTimer() {
         if (DBG) log("cancelTimer()...");
-        removeCallbacks(mTimerCallback);
+        PhoneApp.getInstance().getCallTimeTicker().removeListener(this);
         mTimerRunning = false;
     }
 
+    /**
+     * Implemented for CallTimeTicker.TickListener interface.
+     */
+    public void onTick() {
+        if (PROFILE && isTraceRunning()) {
+            stopTrace();
+        }
+        updateActiveCall();
+    }
+
+    private void updateActiveCall() {
+        if (mCall != null) {
+            Call.State state = mCall.getState();
+
+            if (state == Call.State.ACTIVE) {
+                updateElapsedTime(mCall);
+            }
+        }
+    }
+
     private void updateElapsedTime(Call call) {
         if (mListener != null) {
             long duration = getCallDuration(call);
@@ -158,21 +159,6 @@ public class CallTime extends Handler {
         Log.d(LOG_TAG, "[CallTime] " + msg);
     }
 
-    private class PeriodicTimerCallback implements Runnable {
-        PeriodicTimerCallback() {
-
-        }
-
-        public void run() {
-            if (PROFILE && isTraceRunning()) {
-                stopTrace();
-            }
-
-            mTimerRunning = false;
-            periodicUpdateTimer();
-        }
-    }
-
     static void setTraceReady() {
         if (sProfileState == PROFILE_STATE_NONE) {
             sProfileState = PROFILE_STATE_READY;
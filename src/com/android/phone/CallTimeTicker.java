@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Single once-per-second ticker shared by all the "elapsed time" displays
+ * in the phone process: the CallCard call timer (see CallTime), the
+ * "Manage conference" header, and the Emergency Callback Mode countdown
+ * notification.
+ *
+ * Instead of each of those scheduling its own per-second callback (each
+ * at a different phase), there is one callback, aligned to the wall-clock
+ * second boundary, that updates them all together.  The ticker stops
+ * completely when it has no listeners (listeners only register while
+ * their UI is visible) and while the screen is off; when the screen comes
+ * back on, all the listeners are updated right away.
+ *
+ * The ticker is owned by the PhoneApp, and must only be used from the
+ * main thread.
+ */
+public class CallTimeTicker {
+    private static final String LOG_TAG = "CallTimeTicker";
+    private static final boolean DBG = false;
+
+    private static final long TICK_INTERVAL = 1000;
+
+    interface TickListener {
+        /** Called once per second, on the main thread. */
+        void onTick();
+    }
+
+    private final ArrayList<TickListener> mListeners = new ArrayList<TickListener>();
+    private final Handler mHandler = new Handler();
+    private boolean mScreenOn;
+    private boolean mScheduled;
+
+    // Statistics, reported by dump().  A "wakeup" is one main thread
+    // callback; without the shared ticker, every listener would have had
+    // its own wakeup every second.
+    private long mTicks;
+    private long mListenerTicks;
+    private long mPausedListenerMillis;
+    private long mActiveSince;
+    private long mActiveMillis;
+    private long mPausedSince;
+
+    private final Runnable mTickRunnable = new Runnable() {
+        public void run() {
+            mScheduled = false;
+            mTicks++;
+            mListenerTicks += mListeners.size();
+            dispatchTick();
+            schedule();
+        }
+    };
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
+
+    public CallTimeTicker(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mScreenOn = pm.isScreenOn();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        context.registerReceiver(mScreenReceiver, filter);
+    }
+
+    /**
+     * Starts delivering ticks to the specified listener (if it isn't
+     * already registered.)  The listener isn't called right away; the
+     * caller is expected to update its own display when it starts.
+     */
+    void addListener(TickListener listener) {
+        if (mListeners.contains(listener)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mListeners.isEmpty()) {
+            mActiveSince = now;
+        }
+        accountPausedTime(now);
+        mListeners.add(listener);
+        if (DBG) log("addListener: " + mListeners.size() + " listeners");
+        schedule();
+    }
+
+    void removeListener(TickListener listener) {
+        if (!mListeners.contains(listener)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        accountPausedTime(now);
+        mListeners.remove(listener);
+        if (DBG) log("removeListener: " + mListeners.size() + " listeners");
+        if (mListeners.isEmpty()) {
+            mActiveMillis += now - mActiveSince;
+            cancel();
+        }
+    }
+
+    private void setScreenOn(boolean screenOn) {
+        if (screenOn == mScreenOn) {
+            return;
+        }
+        if (DBG) log("setScreenOn(" + screenOn + "), " + mListeners.size() + " listeners");
+        long now = SystemClock.elapsedRealtime();
+        accountPausedTime(now);
+        mScreenOn = screenOn;
+        if (!screenOn) {
+            cancel();
+        } else {
+            // Bring all the displays up to date right away, rather than
+            // waiting for the next second boundary.
+            dispatchTick();
+            schedule();
+        }
+    }
+
+    /**
+     * Adds the ticks the current listeners would have had since the last
+     * call, if we're paused because the screen is off.  Called before
+     * any change to the listeners or the screen state.
+     */
+    private void accountPausedTime(long now) {
+        if (!mScreenOn) {
+            mPausedListenerMillis += (now - mPausedSince) * mListeners.size();
+        }
+        mPausedSince = now;
+    }
+
+    private void dispatchTick() {
+        // Iterate backwards, since listeners may remove themselves.
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            if (i < mListeners.size()) {
+                mListeners.get(i).onTick();
+            }
+        }
+    }
+
+    /**
+     * Schedules the next tick at the next wall-clock second boundary, if
+     * there's anyone to tick and the screen is on.
+     */
+    private void schedule() {
+        if (mScheduled || !mScreenOn || mListeners.isEmpty()) {
+            return;
+        }
+        long delay = TICK_INTERVAL - (System.currentTimeMillis() % TICK_INTERVAL);
+        mHandler.postDelayed(mTickRunnable, delay);
+        mScheduled = true;
+    }
+
+    private void cancel() {
+        mHandler.removeCallbacks(mTickRunnable);
+        mScheduled = false;
+    }
+
+    /**
+     * Prints the number of wakeups the shared ticker has saved, compared
+     * to one timer per listener: both from coalescing the listeners into
+     * one callback, and from not ticking at all while the screen is off.
+     */
+    void dump(PrintWriter pw) {
+        long activeMillis = mActiveMillis;
+        if (!mListeners.isEmpty()) {
+            activeMillis += SystemClock.elapsedRealtime() - mActiveSince;
+        }
+        long saved = (mListenerTicks - mTicks) + mPausedListenerMillis / TICK_INTERVAL;
+        pw.println("Call time ticker:");
+        pw.println("  listeners=" + mListeners.size() + " screenOn=" + mScreenOn);
+        pw.println("  ticks=" + mTicks + " listenerTicks=" + mListenerTicks
+                + " pausedListenerSeconds=" + (mPausedListenerMillis / TICK_INTERVAL));
+        pw.println("  activeSeconds=" + (activeMillis / 1000) + " wakeupsSaved=" + saved
+                + " savedPerMinute="
+                + (activeMillis >= 1000 ? saved * 60000 / activeMillis : 0));
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
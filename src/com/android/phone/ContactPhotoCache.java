@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+
+import com.android.internal.telephony.CallerInfo;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of decoded contact photos for the in-call UI.
+ *
+ * This replaces ContactsAsyncHelper for the CallCard: photos are loaded
+ * and decoded on a background thread, downsampled to the size of the
+ * ImageView they're displayed in, and kept in an LRU cache (bounded by
+ * R.integer.contact_photo_cache_budget_kb) so that the primary and
+ * "on hold" photo slots, and later updates of the same call, don't
+ * decode the same photo again.
+ *
+ * Entries are keyed by contact id, and remember the photo id (the
+ * ContactsContract.Data row) they were decoded from.  The cache is
+ * cleared when the phone goes idle, so a changed contact photo is picked
+ * up by the next call.
+ *
+ * All public methods must be called from the main thread.
+ */
+public class ContactPhotoCache {
+    private static final String LOG_TAG = "ContactPhotoCache";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    /**
+     * Interface used to notify the caller when a photo load is complete.
+     */
+    public interface OnPhotoLoadCompleteListener {
+        /**
+         * @param cookie the cookie passed to loadPhoto()
+         * @param view the ImageView the photo was loaded into
+         * @param photoPresent true if the contact had a photo
+         */
+        void onPhotoLoadComplete(Object cookie, ImageView view, boolean photoPresent);
+    }
+
+    // Message codes for the main thread handler.
+    private static final int EVENT_PHOTO_LOADED = 1;
+
+    private static final String[] PHOTO_ID_PROJECTION = new String[] { Contacts.PHOTO_ID };
+    private static final String[] PHOTO_PROJECTION = new String[] { Photo.PHOTO };
+
+    /** A decoded photo, and the Data row it came from. */
+    private static class Entry {
+        final long photoId;
+        final Bitmap bitmap;
+        final int size;
+
+        Entry(long photoId, Bitmap bitmap) {
+            this.photoId = photoId;
+            this.bitmap = bitmap;
+            this.size = (bitmap != null) ? bitmap.getRowBytes() * bitmap.getHeight() : 0;
+        }
+    }
+
+    /** A pending load, from the request until the result is delivered. */
+    private static class Request {
+        long contactId;
+        int targetWidth;
+        int targetHeight;
+        CallerInfo info;
+        ImageView view;
+        int defaultResource;
+        OnPhotoLoadCompleteListener listener;
+        Object cookie;
+        // Filled in by the worker thread.
+        Entry result;
+    }
+
+    private final ContentResolver mResolver;
+    private final int mBudgetBytes;
+
+    // Access-ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<Long, Entry> mEntries =
+            new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+    private int mBytesUsed;
+
+    // Latest request for each ImageView; results for older requests are
+    // dropped, since the view has been rebound since.
+    private final HashMap<ImageView, Request> mPendingRequests =
+            new HashMap<ImageView, Request>();
+
+    private final Handler mWorkerHandler;
+
+    // Statistics, for the debug log.
+    private int mHits;
+    private int mMisses;
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case EVENT_PHOTO_LOADED:
+                    onPhotoLoaded((Request) msg.obj);
+                    break;
+            }
+        }
+    };
+
+    public ContactPhotoCache(Context context) {
+        mResolver = context.getContentResolver();
+        mBudgetBytes = context.getResources().getInteger(R.integer.contact_photo_cache_budget_kb)
+                * 1024;
+
+        HandlerThread thread = new HandlerThread("ContactPhotoLoader",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorkerHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                Request request = (Request) msg.obj;
+                request.result = loadPhoto(request);
+                mHandler.obtainMessage(EVENT_PHOTO_LOADED, request).sendToTarget();
+            }
+        };
+    }
+
+    /**
+     * Displays the photo of the specified contact in the ImageView.
+     *
+     * If the photo is already in the cache it's displayed right away;
+     * otherwise the view shows the placeholderResource (or is made
+     * INVISIBLE, if placeholderResource is -1) and the photo is loaded
+     * in the background.  When the photo arrives the view is updated
+     * (with defaultResource, if the contact has no photo) and the
+     * listener is called.
+     *
+     * In both cases the CallerInfo (if non-null) is updated with the
+     * decoded photo, so that later updates can use
+     * CallerInfo.cachedPhoto directly.
+     */
+    void loadPhoto(CallerInfo info, Uri contactUri, ImageView view,
+            int placeholderResource, int defaultResource,
+            OnPhotoLoadCompleteListener listener, Object cookie) {
+        mPendingRequests.remove(view);
+
+        long contactId = (contactUri != null) ? ContentUris.parseId(contactUri) : -1;
+        if (contactId < 0) {
+            if (DBG) log("loadPhoto: no contact, using default image");
+            showPhoto(view, null, defaultResource);
+            if (listener != null) listener.onPhotoLoadComplete(cookie, view, false);
+            return;
+        }
+
+        Entry entry = mEntries.get(contactId);
+        if (entry != null) {
+            mHits++;
+            if (DBG) log("loadPhoto: cache hit for contact " + contactId);
+            updateCallerInfo(info, entry);
+            showPhoto(view, entry, defaultResource);
+            if (listener != null) listener.onPhotoLoadComplete(cookie, view, entry.bitmap != null);
+            return;
+        }
+        mMisses++;
+
+        if (placeholderResource != -1) {
+            view.setImageResource(placeholderResource);
+            view.setVisibility(View.VISIBLE);
+        } else {
+            view.setVisibility(View.INVISIBLE);
+        }
+
+        Request request = new Request();
+        request.contactId = contactId;
+        request.targetWidth = getTargetDimension(view.getWidth(),
+                view.getLayoutParams() != null ? view.getLayoutParams().width : 0);
+        request.targetHeight = getTargetDimension(view.getHeight(),
+                view.getLayoutParams() != null ? view.getLayoutParams().height : 0);
+        request.info = info;
+        request.view = view;
+        request.defaultResource = defaultResource;
+        request.listener = listener;
+        request.cookie = cookie;
+        mPendingRequests.put(view, request);
+        if (DBG) log("loadPhoto: loading contact " + contactId + " at "
+                + request.targetWidth + "x" + request.targetHeight);
+        mWorkerHandler.obtainMessage(0, request).sendToTarget();
+    }
+
+    /**
+     * Drops all cached photos and pending results.  Called when the
+     * phone goes idle.
+     */
+    void clear() {
+        if (DBG) log("clear: " + mEntries.size() + " entries, " + mBytesUsed + " bytes, "
+                + mHits + " hits, " + mMisses + " misses");
+        mEntries.clear();
+        mPendingRequests.clear();
+        mBytesUsed = 0;
+    }
+
+    private void onPhotoLoaded(Request request) {
+        Entry entry = request.result;
+        if (entry.bitmap != null || entry.photoId == 0) {
+            put(request.contactId, entry);
+        }
+        updateCallerInfo(request.info, entry);
+
+        if (mPendingRequests.get(request.view) != request) {
+            if (DBG) log("onPhotoLoaded: view was rebound, dropping result");
+            return;
+        }
+        mPendingRequests.remove(request.view);
+        showPhoto(request.view, entry, request.defaultResource);
+        if (request.listener != null) {
+            request.listener.onPhotoLoadComplete(request.cookie, request.view,
+                    entry.bitmap != null);
+        }
+    }
+
+    private void put(long contactId, Entry entry) {
+        Entry old = mEntries.put(contactId, entry);
+        if (old != null) {
+            mBytesUsed -= old.size;
+        }
+        mBytesUsed += entry.size;
+
+        Iterator<Map.Entry<Long, Entry>> it = mEntries.entrySet().iterator();
+        while (mBytesUsed > mBudgetBytes && it.hasNext()) {
+            Entry evicted = it.next().getValue();
+            if (evicted == entry) {
+                // Never evict what we just put in, even if it alone is
+                // over budget.
+                continue;
+            }
+            it.remove();
+            mBytesUsed -= evicted.size;
+        }
+    }
+
+    private void updateCallerInfo(CallerInfo info, Entry entry) {
+        if (info == null) return;
+        info.cachedPhoto = (entry.bitmap != null) ? new BitmapDrawable(entry.bitmap) : null;
+        info.isCachedPhotoCurrent = true;
+    }
+
+    private static void showPhoto(ImageView view, Entry entry, int defaultResource) {
+        if (entry != null && entry.bitmap != null) {
+            view.setImageBitmap(entry.bitmap);
+            view.setVisibility(View.VISIBLE);
+        } else if (defaultResource != -1) {
+            view.setImageResource(defaultResource);
+            view.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * @return the size to decode to for one dimension of an ImageView:
+     *     its laid out size if known, otherwise its fixed LayoutParams
+     *     size, otherwise 0 (no downsampling.)
+     */
+    private static int getTargetDimension(int actual, int layoutParam) {
+        if (actual > 0) return actual;
+        if (layoutParam > 0) return layoutParam;
+        return 0;
+    }
+
+    /**
+     * Loads and decodes the photo for a request.  Runs on the worker
+     * thread.
+     */
+    private Entry loadPhoto(Request request) {
+        long photoId = 0;
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(
+                    ContentUris.withAppendedId(Contacts.CONTENT_URI, request.contactId),
+                    PHOTO_ID_PROJECTION, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                photoId = cursor.getLong(0);
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        if (photoId == 0) {
+            return new Entry(0, null);
+        }
+
+        byte[] data = null;
+        cursor = null;
+        try {
+            cursor = mResolver.query(ContentUris.withAppendedId(Data.CONTENT_URI, photoId),
+                    PHOTO_PROJECTION, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                data = cursor.getBlob(0);
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        if (data == null) {
+            return new Entry(photoId, null);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int sampleSize = 1;
+        if (request.targetWidth > 0 && request.targetHeight > 0) {
+            while (options.outWidth / (sampleSize * 2) >= request.targetWidth
+                    && options.outHeight / (sampleSize * 2) >= request.targetHeight) {
+                sampleSize *= 2;
+            }
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (DBG) log("loadPhoto: contact " + request.contactId + ", photo " + photoId
+                + ", sample size " + sampleSize);
+        return new Entry(photoId, bitmap);
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
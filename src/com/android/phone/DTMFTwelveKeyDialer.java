@@ -31,6 +31,7 @@ import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewStub;
 import android.widget.EditText;
 import android.widget.SlidingDrawer;
 import android.widget.TextView;
@@ -39,8 +40,6 @@ import com.android.internal.telephony.CallManager;
 import com.android.internal.telephony.Phone;
 
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
 
 
 /**
@@ -57,11 +56,13 @@ public class DTMFTwelveKeyDialer implements
 
     // events
     private static final int PHONE_DISCONNECT = 100;
-    private static final int DTMF_SEND_CNF = 101;
 
     private CallManager mCM;
-    private ToneGenerator mToneGenerator;
-    private Object mToneGeneratorLock = new Object();
+    private LocalTonePlayer mTonePlayer;
+
+    // true if we're holding a reference to the shared tone generator;
+    // see startDialerSession().
+    private boolean mTonePlayerAcquired;
 
     // indicate if we want to enable the DTMF tone playback.
     private boolean mDTMFToneEnabled;
@@ -69,15 +70,15 @@ public class DTMFTwelveKeyDialer implements
     // DTMF tone type
     private int mDTMFToneType;
 
-    // indicate if the confirmation from TelephonyFW is pending.
-    private boolean mDTMFBurstCnfPending = false;
-
-    // Queue to queue the short dtmf characters.
-    private Queue<Character> mDTMFQueue = new LinkedList<Character>();
+    // Queues, batches and paces the short (burst) dtmf characters.
+    private DtmfBurstSender mDtmfBurstSender;
 
     //  Short Dtmf tone duration
     private static final int DTMF_DURATION_MS = 120;
 
+    // Local tone volume, relative to the DTMF stream volume.
+    private static final int TONE_RELATIVE_VOLUME = 80;
+
 
     /** Hash Map to map a character to a tone*/
     private static final HashMap<Character, Integer> mToneMap =
@@ -129,7 +130,14 @@ public class DTMFTwelveKeyDialer implements
     private SlidingDrawer mDialerDrawer;
 
     // The DTMFTwelveKeyDialerView we use to display the dialpad.
+    // If we were created with a ViewStub, this stays null until the
+    // dialpad is first opened; see ensureDialerView().
     private DTMFTwelveKeyDialerView mDialerView;
+    private ViewStub mDialerViewStub;
+
+    // Background for the dialpad keys, applied when (or if) the dialer
+    // view gets inflated.  See setKeysBackgroundResource().
+    private int mKeysBackgroundResId;
 
     // KeyListener used with the "dialpad digits" EditText widget.
     private DTMFKeyListener mDialerKeyListener;
@@ -238,6 +246,7 @@ public class DTMFTwelveKeyDialer implements
 
             // if not a long press, and parent onKeyDown accepts the input
             if (event.getRepeatCount() == 0 && super.onKeyDown(view, content, keyCode, event)) {
+                mTonePlayer.noteKeyDown(event.getEventTime());
 
                 boolean keyOK = ok(getAcceptedChars(), c);
 
@@ -291,6 +300,7 @@ public class DTMFTwelveKeyDialer implements
                 // if the character is a valid dtmf code, start playing the tone and send the
                 // code.
                 if (ok(getAcceptedChars(), c)) {
+                    mTonePlayer.noteKeyDown(event.getEventTime());
                     if (DBG) log("DTMFKeyListener reading '" + c + "' from input.");
                     processDtmf(c);
                     return true;
@@ -381,11 +391,6 @@ public class DTMFTwelveKeyDialer implements
                     mCM.unregisterForDisconnect(this);
                     closeDialer(false);
                     break;
-                case DTMF_SEND_CNF:
-                    if (DBG) log("dtmf confirmation received from FW.");
-                    // handle burst dtmf confirmation
-                    handleBurstDtmfConfirmation();
-                    break;
             }
         }
     };
@@ -407,6 +412,9 @@ public class DTMFTwelveKeyDialer implements
 
         mInCallScreen = parent;
         mCM = PhoneApp.getInstance().mCM;
+        mTonePlayer = PhoneApp.getInstance().getLocalTonePlayer(
+                AudioManager.STREAM_DTMF, TONE_RELATIVE_VOLUME);
+        mDtmfBurstSender = new DtmfBurstSender(mCM, PhoneApp.getInstance().getResources());
 
         // The passed-in DTMFTwelveKeyDialerView *should* always be
         // non-null, now that the in-call UI uses only portrait mode.
@@ -415,12 +423,56 @@ public class DTMFTwelveKeyDialer implements
             // ...continue as best we can, although things will
             // be pretty broken without the mDialerView UI elements!
         }
-        mDialerView = dialerView;
-        if (DBG) log("- Got passed-in mDialerView: " + mDialerView);
-
         mDialerDrawer = dialerDrawer;
         if (DBG) log("- Got passed-in mDialerDrawer: " + mDialerDrawer);
 
+        initDialerView(dialerView);
+
+        if (mDialerDrawer != null) {
+            mDialerDrawer.setOnDrawerOpenListener(this);
+            mDialerDrawer.setOnDrawerCloseListener(this);
+        }
+
+    }
+
+    /**
+     * DTMFTwelveKeyDialer constructor for devices that don't use a
+     * SlidingDrawer, where the dialpad is hidden until the user
+     * explicitly asks for it.  Most calls never bring up the dialpad, so
+     * in this case the DTMFTwelveKeyDialerView isn't inflated until the
+     * first time the dialer is opened.
+     *
+     * @param parent the InCallScreen instance that owns us.
+     * @param dialerViewStub the ViewStub that inflates the
+     *                       DTMFTwelveKeyDialerView.
+     */
+    public DTMFTwelveKeyDialer(InCallScreen parent, ViewStub dialerViewStub) {
+        if (DBG) log("DTMFTwelveKeyDialer constructor (lazy)... this = " + this);
+
+        mInCallScreen = parent;
+        mCM = PhoneApp.getInstance().mCM;
+        mTonePlayer = PhoneApp.getInstance().getLocalTonePlayer(
+                AudioManager.STREAM_DTMF, TONE_RELATIVE_VOLUME);
+        mDtmfBurstSender = new DtmfBurstSender(mCM, PhoneApp.getInstance().getResources());
+
+        if (dialerViewStub == null) {
+            Log.e(LOG_TAG, "DTMFTwelveKeyDialer: null dialerViewStub!",
+                    new IllegalStateException());
+        }
+        mDialerViewStub = dialerViewStub;
+
+        // Hardware keyboard DTMF goes through this listener even if the
+        // onscreen dialpad has never been shown.
+        mDialerKeyListener = new DTMFKeyListener();
+    }
+
+    /**
+     * Hooks up the DTMFTwelveKeyDialerView we use to display the dialpad.
+     */
+    private void initDialerView(DTMFTwelveKeyDialerView dialerView) {
+        mDialerView = dialerView;
+        if (DBG) log("- Got mDialerView: " + mDialerView);
+
         if (mDialerView != null) {
             mDialerView.setDialer(this);
 
@@ -431,7 +483,9 @@ public class DTMFTwelveKeyDialer implements
             // be null.
             mDialpadDigits = (EditText) mDialerView.findViewById(R.id.dtmfDialerField);
             if (mDialpadDigits != null) {
-                mDialerKeyListener = new DTMFKeyListener();
+                if (mDialerKeyListener == null) {
+                    mDialerKeyListener = new DTMFKeyListener();
+                }
                 mDialpadDigits.setKeyListener(mDialerKeyListener);
 
                 // remove the long-press context menus that support
@@ -445,13 +499,39 @@ public class DTMFTwelveKeyDialer implements
             // Hook up touch / key listeners for the buttons in the onscreen
             // keypad.
             setupKeypad(mDialerView);
+
+            if (mKeysBackgroundResId != 0) {
+                mDialerView.setKeysBackgroundResource(mKeysBackgroundResId);
+            }
         }
+    }
 
-        if (mDialerDrawer != null) {
-            mDialerDrawer.setOnDrawerOpenListener(this);
-            mDialerDrawer.setOnDrawerCloseListener(this);
+    /**
+     * Inflates the dialer view from its ViewStub, if we were created
+     * with one and this hasn't happened yet.
+     */
+    private void ensureDialerView() {
+        if (mDialerView == null && mDialerViewStub != null) {
+            if (DBG) log("ensureDialerView: inflating the dialpad (first time)...");
+            DTMFTwelveKeyDialerView dialerView =
+                    (DTMFTwelveKeyDialerView) mDialerViewStub.inflate();
+            mDialerViewStub = null;
+            initDialerView(dialerView);
         }
+    }
 
+    /**
+     * Sets the background of the dialpad keys.  If the dialpad hasn't
+     * been inflated yet, the background is applied when it is.
+     */
+    /* package */ void setKeysBackgroundResource(int resId) {
+        if (resId == mKeysBackgroundResId) {
+            return;
+        }
+        mKeysBackgroundResId = resId;
+        if (mDialerView != null) {
+            mDialerView.setKeysBackgroundResource(resId);
+        }
     }
 
     /**
@@ -469,11 +549,7 @@ public class DTMFTwelveKeyDialer implements
             mDialerDrawer.setOnDrawerCloseListener(null);
         }
         if (mCM.getFgPhone().getPhoneType() == Phone.PHONE_TYPE_CDMA) {
-            mHandler.removeMessages(DTMF_SEND_CNF);
-            synchronized (mDTMFQueue) {
-                mDTMFBurstCnfPending = false;
-                mDTMFQueue.clear();
-            }
+            mDtmfBurstSender.clear();
         }
         closeDialer(false);
     }
@@ -521,20 +597,11 @@ public class DTMFTwelveKeyDialer implements
         }
         if (DBG) log("- startDialerSession: mDTMFToneEnabled = " + mDTMFToneEnabled);
 
-        // create the tone generator
-        // if the mToneGenerator creation fails, just continue without it.  It is
-        // a local audio signal, and is not as important as the dtmf tone itself.
-        if (mDTMFToneEnabled) {
-            synchronized (mToneGeneratorLock) {
-                if (mToneGenerator == null) {
-                    try {
-                        mToneGenerator = new ToneGenerator(AudioManager.STREAM_DTMF, 80);
-                    } catch (RuntimeException e) {
-                        if (DBG) log("Exception caught while creating local tone generator: " + e);
-                        mToneGenerator = null;
-                    }
-                }
-            }
+        // Hold on to the shared tone generator, so that it's warm by the
+        // time the user presses a key.
+        if (mDTMFToneEnabled && !mTonePlayerAcquired) {
+            mTonePlayer.acquire();
+            mTonePlayerAcquired = true;
         }
     }
 
@@ -566,11 +633,9 @@ public class DTMFTwelveKeyDialer implements
      */
     public void stopDialerSession() {
         // release the tone generator.
-        synchronized (mToneGeneratorLock) {
-            if (mToneGenerator != null) {
-                mToneGenerator.release();
-                mToneGenerator = null;
-            }
+        if (mTonePlayerAcquired) {
+            mTonePlayer.release();
+            mTonePlayerAcquired = false;
         }
     }
 
@@ -642,6 +707,7 @@ public class DTMFTwelveKeyDialer implements
                 case MotionEvent.ACTION_DOWN:
                     // Append the character mapped to this button, to the display.
                     // start the tone
+                    mTonePlayer.noteKeyDown(event.getEventTime());
                     processDtmf(mDisplayMap.get(viewId));
                     break;
                 case MotionEvent.ACTION_UP:
@@ -668,6 +734,7 @@ public class DTMFTwelveKeyDialer implements
                 switch (event.getAction()) {
                 case KeyEvent.ACTION_DOWN:
                     if (event.getRepeatCount() == 0) {
+                        mTonePlayer.noteKeyDown(event.getEventTime());
                         processDtmf(mDisplayMap.get(viewId));
                     }
                     break;
@@ -695,7 +762,8 @@ public class DTMFTwelveKeyDialer implements
             return mDialerDrawer.isOpened();
         } else {
             // Otherwise, return whether or not the dialer view is visible.
-            return mDialerView.getVisibility() == View.VISIBLE;
+            // (A dialer view that hasn't been inflated yet is never visible.)
+            return (mDialerView != null) && (mDialerView.getVisibility() == View.VISIBLE);
         }
     }
 
@@ -728,6 +796,7 @@ public class DTMFTwelveKeyDialer implements
                 // If we're not using a SlidingDrawer, just make
                 // the dialer view visible.
                 // TODO: add a fade-in animation if "animate" is true?
+                ensureDialerView();
                 mDialerView.setVisibility(View.VISIBLE);
 
                 // And since we're not using a SlidingDrawer, we won't get an
@@ -878,33 +947,27 @@ public class DTMFTwelveKeyDialer implements
 
         // if local tone playback is enabled, start it.
         if (mDTMFToneEnabled) {
-            synchronized (mToneGeneratorLock) {
-                if (mToneGenerator == null) {
-                    if (DBG) log("startDtmfTone: mToneGenerator == null, tone: " + tone);
-                } else {
-                    boolean generateTone = true;
-                    if (PhoneApp.getInstance().isHeadsetPlugged()) {
-                        int TTYmode = Settings.Secure.getInt(
-                                        PhoneApp.getInstance().getContentResolver(),
-                                        Settings.Secure.PREFERRED_TTY_MODE,
-                                        Phone.TTY_MODE_OFF);
-
-                        /*
-                         * In TTY full and and voice carry over modes,
-                         * DTMF tone should not be played
-                         * generateTone is false for FULL/VCO mode
-                         */
-                        generateTone = !((TTYmode == Phone.TTY_MODE_FULL)
-                                         || (TTYmode == Phone.TTY_MODE_VCO));
-                    }
-                    if (generateTone) {
-                        if (DBG) log("starting local tone " + tone);
-                        mToneGenerator.startTone(mToneMap.get(tone));
-                    }
-                    else {
-                        if (DBG) log("Not starting local tone. Phone connected to TTY in FULL or VCO mode");
-                    }
-                }
+            boolean generateTone = true;
+            if (PhoneApp.getInstance().isHeadsetPlugged()) {
+                int TTYmode = Settings.Secure.getInt(
+                                PhoneApp.getInstance().getContentResolver(),
+                                Settings.Secure.PREFERRED_TTY_MODE,
+                                Phone.TTY_MODE_OFF);
+
+                /*
+                 * In TTY full and and voice carry over modes,
+                 * DTMF tone should not be played
+                 * generateTone is false for FULL/VCO mode
+                 */
+                generateTone = !((TTYmode == Phone.TTY_MODE_FULL)
+                                 || (TTYmode == Phone.TTY_MODE_VCO));
+            }
+            if (generateTone) {
+                if (DBG) log("starting local tone " + tone);
+                mTonePlayer.startTone(mToneMap.get(tone), -1);
+            }
+            else {
+                if (DBG) log("Not starting local tone. Phone connected to TTY in FULL or VCO mode");
             }
         }
     }
@@ -927,14 +990,7 @@ public class DTMFTwelveKeyDialer implements
         // if local tone playback is enabled, stop it.
         if (DBG) log("trying to stop local tone...");
         if (mDTMFToneEnabled) {
-            synchronized (mToneGeneratorLock) {
-                if (mToneGenerator == null) {
-                    if (DBG) log("stopDtmfTone: mToneGenerator == null");
-                } else {
-                    if (DBG) log("stopping local tone.");
-                    mToneGenerator.stopTone();
-                }
-            }
+            mTonePlayer.stopTone();
         }
     }
 
@@ -1012,41 +1068,25 @@ public class DTMFTwelveKeyDialer implements
 
         // if local tone playback is enabled, start it.
         if (mDTMFToneEnabled) {
-            synchronized (mToneGeneratorLock) {
-                if (mToneGenerator == null) {
-                    if (DBG) log("startToneCdma: mToneGenerator == null, tone: " + tone);
-                } else {
-                    if (DBG) log("starting local tone " + tone);
+            if (DBG) log("starting local tone " + tone);
 
-                    // Start the new tone.
-                    int toneDuration = -1;
-                    if (mDTMFToneType == CallFeaturesSetting.DTMF_TONE_TYPE_NORMAL) {
-                        toneDuration = DTMF_DURATION_MS;
-                    }
-                    mToneGenerator.startTone(mToneMap.get(tone), toneDuration);
-                }
+            // Start the new tone.
+            int toneDuration = -1;
+            if (mDTMFToneType == CallFeaturesSetting.DTMF_TONE_TYPE_NORMAL) {
+                toneDuration = DTMF_DURATION_MS;
             }
+            mTonePlayer.startTone(mToneMap.get(tone), toneDuration);
         }
     }
 
     /**
      * Sends the dtmf character over the network for short DTMF settings
      * When the characters are entered in quick succession,
-     * the characters are queued before sending over the network.
+     * the characters are queued and sent together as one burst; see
+     * DtmfBurstSender.
      */
     private void sendShortDtmfToNetwork(char dtmfDigit) {
-        synchronized (mDTMFQueue) {
-            if (mDTMFBurstCnfPending == true) {
-                // Insert the dtmf char to the queue
-                mDTMFQueue.add(new Character(dtmfDigit));
-            } else {
-                String dtmfStr = Character.toString(dtmfDigit);
-                Log.i(LOG_TAG, "dtmfsent = " + dtmfStr);
-                mCM.sendBurstDtmf(dtmfStr, 0, 0, mHandler.obtainMessage(DTMF_SEND_CNF));
-                // Set flag to indicate wait for Telephony confirmation.
-                mDTMFBurstCnfPending = true;
-            }
-        }
+        mDtmfBurstSender.enqueue(dtmfDigit);
     }
 
     /**
@@ -1067,31 +1107,7 @@ public class DTMFTwelveKeyDialer implements
         // if local tone playback is enabled, stop it.
         if (DBG) log("trying to stop local tone...");
         if (mDTMFToneEnabled) {
-            synchronized (mToneGeneratorLock) {
-                if (mToneGenerator == null) {
-                    if (DBG) log("stopLocalToneCdma: mToneGenerator == null");
-                } else {
-                    if (DBG) log("stopping local tone.");
-                    mToneGenerator.stopTone();
-                }
-            }
-        }
-    }
-
-    /**
-     * Handles Burst Dtmf Confirmation from the Framework.
-     */
-    void handleBurstDtmfConfirmation() {
-        Character dtmfChar = null;
-        synchronized (mDTMFQueue) {
-            mDTMFBurstCnfPending = false;
-            if (!mDTMFQueue.isEmpty()) {
-                dtmfChar = mDTMFQueue.remove();
-                Log.i(LOG_TAG, "The dtmf character removed from queue" + dtmfChar);
-            }
-        }
-        if (dtmfChar != null) {
-            sendShortDtmfToNetwork(dtmfChar);
+            mTonePlayer.stopTone();
         }
     }
 }
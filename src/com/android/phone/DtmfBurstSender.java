@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.telephony.CallManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Send pipeline for CDMA "short" (burst) DTMF digits typed on the in-call
+ * dialpad.
+ *
+ * Only one burst can be outstanding with the network at a time, so digits
+ * typed while a burst is pending are queued.  When the confirmation
+ * arrives, everything queued so far (up to
+ * R.integer.cdma_dtmf_burst_max_digits) goes out as a single burst, rather
+ * than one round trip per digit, which is what used to make fast IVR
+ * entry (conference PINs and such) lag behind the user.  Bursts use the
+ * carrier's on/off lengths from R.integer.cdma_dtmf_burst_on_length and
+ * R.integer.cdma_dtmf_burst_off_length (0 = network default), are spaced
+ * at least R.integer.cdma_dtmf_burst_min_interval_ms apart, and a burst
+ * whose confirmation never arrives no longer stalls the queue forever.
+ *
+ * Each burst carries a sequence number in its confirmation and timeout
+ * messages, so that a confirmation arriving after its burst timed out (or
+ * after clear()) isn't taken for the confirmation of the next one.
+ *
+ * Per-digit send latency (key press to burst sent) and confirm latency
+ * (burst sent to confirmation) are reported by dumpStats().
+ *
+ * Must only be used from the main thread.
+ */
+public class DtmfBurstSender {
+    private static final String LOG_TAG = "DtmfBurstSender";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    // Message codes
+    private static final int EVENT_BURST_CONFIRMED = 1;
+    private static final int EVENT_BURST_TIMEOUT = 2;
+    private static final int EVENT_SEND_NEXT = 3;
+
+    // How long to wait for the network to confirm a burst before giving
+    // up on it and moving on to the queued digits.
+    private static final int BURST_CONFIRM_TIMEOUT_MS = 3000;
+
+    // Digits queued but not sent yet.  More than this many pending digits
+    // isn't realistic for dialpad input; see enqueue().
+    private static final int MAX_QUEUED_DIGITS = 256;
+
+    private final CallManager mCM;
+    private final int mMaxBurstDigits;
+    private final int mOnLength;
+    private final int mOffLength;
+    private final int mMinIntervalMs;
+
+    // Ring buffer of queued digits, and the uptime each was queued at.
+    private final char[] mQueue = new char[MAX_QUEUED_DIGITS];
+    private final long[] mQueueTimes = new long[MAX_QUEUED_DIGITS];
+    private int mQueueHead;
+    private int mQueueSize;
+
+    // The outstanding burst, if any, and its sequence number.
+    private boolean mBurstPending;
+    private int mBurstSeq;
+    private int mBurstDigits;
+    private long mBurstSentTime;
+    private long mLastBurstTime;
+    private final StringBuilder mBurstBuilder = new StringBuilder();
+
+    // Statistics, process-wide; see dumpStats().
+    private static int sDigits;
+    private static int sBursts;
+    private static int sTimeouts;
+    private static int sLateConfirmations;
+    private static int sOverflows;
+    private static long sSendLatencyTotal;
+    private static long sSendLatencyMax;
+    private static long sConfirmLatencyTotal;
+    private static long sConfirmLatencyMax;
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case EVENT_BURST_CONFIRMED:
+                    if (DBG) log("dtmf confirmation received from FW.");
+                    onBurstDone(msg.arg1, false);
+                    break;
+
+                case EVENT_BURST_TIMEOUT:
+                    onBurstDone(msg.arg1, true);
+                    break;
+
+                case EVENT_SEND_NEXT:
+                    sendNextBurst();
+                    break;
+            }
+        }
+    };
+
+    public DtmfBurstSender(CallManager cm, Resources res) {
+        mCM = cm;
+        mMaxBurstDigits = Math.max(1, res.getInteger(R.integer.cdma_dtmf_burst_max_digits));
+        mOnLength = res.getInteger(R.integer.cdma_dtmf_burst_on_length);
+        mOffLength = res.getInteger(R.integer.cdma_dtmf_burst_off_length);
+        mMinIntervalMs = res.getInteger(R.integer.cdma_dtmf_burst_min_interval_ms);
+    }
+
+    /**
+     * Queues a digit to be sent to the network, sending it right away if
+     * no burst is outstanding.
+     */
+    void enqueue(char digit) {
+        if (mQueueSize == MAX_QUEUED_DIGITS) {
+            Log.w(LOG_TAG, "DTMF queue full, dropping '" + digit + "'");
+            sOverflows++;
+            return;
+        }
+        int index = (mQueueHead + mQueueSize) % MAX_QUEUED_DIGITS;
+        mQueue[index] = digit;
+        mQueueTimes[index] = SystemClock.uptimeMillis();
+        mQueueSize++;
+        if (!mBurstPending && !mHandler.hasMessages(EVENT_SEND_NEXT)) {
+            sendNextBurst();
+        }
+    }
+
+    /**
+     * Drops all queued digits, and forgets about any outstanding burst
+     * (whose confirmation, if it still arrives, is ignored.)
+     */
+    void clear() {
+        mHandler.removeMessages(EVENT_BURST_TIMEOUT);
+        mHandler.removeMessages(EVENT_SEND_NEXT);
+        mQueueSize = 0;
+        mBurstPending = false;
+    }
+
+    private void sendNextBurst() {
+        if (mBurstPending || mQueueSize == 0) {
+            return;
+        }
+
+        // Respect the minimum spacing between bursts.
+        final long now = SystemClock.uptimeMillis();
+        final long wait = mLastBurstTime + mMinIntervalMs - now;
+        if (wait > 0) {
+            mHandler.sendEmptyMessageDelayed(EVENT_SEND_NEXT, wait);
+            return;
+        }
+
+        mBurstBuilder.setLength(0);
+        final int count = Math.min(mQueueSize, mMaxBurstDigits);
+        for (int i = 0; i < count; i++) {
+            mBurstBuilder.append(mQueue[mQueueHead]);
+            long sendLatency = now - mQueueTimes[mQueueHead];
+            sSendLatencyTotal += sendLatency;
+            if (sendLatency > sSendLatencyMax) sSendLatencyMax = sendLatency;
+            mQueueHead = (mQueueHead + 1) % MAX_QUEUED_DIGITS;
+        }
+        mQueueSize -= count;
+
+        final String dtmfStr = mBurstBuilder.toString();
+        Log.i(LOG_TAG, "dtmfsent = " + dtmfStr);
+        mBurstSeq++;
+        mCM.sendBurstDtmf(dtmfStr, mOnLength, mOffLength,
+                mHandler.obtainMessage(EVENT_BURST_CONFIRMED, mBurstSeq, 0));
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(EVENT_BURST_TIMEOUT, mBurstSeq, 0),
+                BURST_CONFIRM_TIMEOUT_MS);
+
+        // Wait for the Telephony confirmation before sending anything else.
+        mBurstPending = true;
+        mBurstDigits = count;
+        mBurstSentTime = now;
+        mLastBurstTime = now;
+        sDigits += count;
+        sBursts++;
+    }
+
+    private void onBurstDone(int seq, boolean timedOut) {
+        if (!mBurstPending || seq != mBurstSeq) {
+            // For a burst we already gave up on, or dropped in clear().
+            if (!timedOut) {
+                if (DBG) log("late confirmation for burst #" + seq + ", ignored");
+                sLateConfirmations++;
+            }
+            return;
+        }
+        mHandler.removeMessages(EVENT_BURST_TIMEOUT);
+        mBurstPending = false;
+
+        if (timedOut) {
+            Log.w(LOG_TAG, "No confirmation for DTMF burst; sending queued digits anyway");
+            sTimeouts++;
+        } else {
+            long confirmLatency = SystemClock.uptimeMillis() - mBurstSentTime;
+            sConfirmLatencyTotal += confirmLatency * mBurstDigits;
+            if (confirmLatency > sConfirmLatencyMax) sConfirmLatencyMax = confirmLatency;
+        }
+
+        sendNextBurst();
+    }
+
+    /**
+     * Prints the per-digit send and confirm latencies, and how well
+     * digits were batched into bursts.
+     */
+    static void dumpStats(PrintWriter pw) {
+        pw.println("CDMA DTMF bursts: digits=" + sDigits + " bursts=" + sBursts
+                + " timeouts=" + sTimeouts + " lateConfirmations=" + sLateConfirmations
+                + " overflows=" + sOverflows);
+        pw.println("  sendLatencyMs avg=" + (sDigits > 0 ? sSendLatencyTotal / sDigits : 0)
+                + " max=" + sSendLatencyMax
+                + " confirmLatencyMs avg=" + (sDigits > 0 ? sConfirmLatencyTotal / sDigits : 0)
+                + " max=" + sConfirmLatencyMax);
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
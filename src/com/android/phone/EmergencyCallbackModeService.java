@@ -27,10 +27,10 @@ import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.os.AsyncResult;
 import android.os.Binder;
-import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.util.Log;
 
@@ -53,8 +53,8 @@ public class EmergencyCallbackModeService extends Service {
     private static final String LOG_TAG = "EmergencyCallbackModeService";
 
     private NotificationManager mNotificationManager = null;
-    private CountDownTimer mTimer = null;
     private long mTimeLeft = 0;
+    private long mEcmExitTime = 0;
     private Phone mPhone = null;
     private boolean mInEmergencyCall = false;
 
@@ -103,9 +103,26 @@ public class EmergencyCallbackModeService extends Service {
 
         // Cancel the notification and timer
         mNotificationManager.cancel(R.string.phone_in_ecm_notification_title);
-        mTimer.cancel();
+        PhoneApp.getInstance().getCallTimeTicker().removeListener(mTicker);
     }
 
+    /**
+     * Updates the countdown in the notification once per second, using
+     * the shared CallTimeTicker (which doesn't run while the screen is
+     * off, when nobody can see the notification anyway.)
+     */
+    private final CallTimeTicker.TickListener mTicker = new CallTimeTicker.TickListener() {
+        public void onTick() {
+            long millisUntilFinished = mEcmExitTime - SystemClock.elapsedRealtime();
+            if (millisUntilFinished <= 0) {
+                PhoneApp.getInstance().getCallTimeTicker().removeListener(this);
+                return;
+            }
+            mTimeLeft = millisUntilFinished;
+            showNotification(millisUntilFinished);
+        }
+    };
+
     /**
      * Listens for Emergency Callback Mode intents
      */
@@ -141,20 +158,9 @@ public class EmergencyCallbackModeService extends Service {
         showNotification(ecmTimeout);
 
         // Start countdown timer for the notification updates
-        mTimer = new CountDownTimer(ecmTimeout, 1000) {
-
-            @Override
-            public void onTick(long millisUntilFinished) {
-                mTimeLeft = millisUntilFinished;
-                EmergencyCallbackModeService.this.showNotification(millisUntilFinished);
-            }
-
-            @Override
-            public void onFinish() {
-                //Do nothing
-            }
-
-        }.start();
+        mTimeLeft = ecmTimeout;
+        mEcmExitTime = SystemClock.elapsedRealtime() + ecmTimeout;
+        PhoneApp.getInstance().getCallTimeTicker().addListener(mTicker);
     }
 
     /**
@@ -200,7 +206,7 @@ public class EmergencyCallbackModeService extends Service {
 
         if (isTimerCanceled) {
             mInEmergencyCall = true;
-            mTimer.cancel();
+            PhoneApp.getInstance().getCallTimeTicker().removeListener(mTicker);
             showNotification(0);
         } else {
             mInEmergencyCall = false;
@@ -229,6 +235,11 @@ public class EmergencyCallbackModeService extends Service {
      * Returns Emergency Callback Mode timeout value
      */
     public long getEmergencyCallbackModeTimeout() {
+        // The ticker doesn't run while the screen is off, so mTimeLeft
+        // may be stale; recompute it unless the countdown is suspended.
+        if (!mInEmergencyCall) {
+            mTimeLeft = Math.max(mEcmExitTime - SystemClock.elapsedRealtime(), 0);
+        }
         return mTimeLeft;
     }
 
@@ -32,7 +32,6 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.provider.Settings;
-import android.telephony.PhoneNumberUtils;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
@@ -90,8 +89,8 @@ public class EmergencyDialer extends Activity
     private View mDialButton;
     private View mDelete;
 
-    private ToneGenerator mToneGenerator;
-    private Object mToneGeneratorLock = new Object();
+    // Kept warm across activity restarts; see LocalTonePlayer.
+    private LocalTonePlayer mTonePlayer;
 
     // new UI background assets
     private Drawable mDigitsBackground;
@@ -203,22 +202,13 @@ public class EmergencyDialer extends Activity
             super.onRestoreInstanceState(icicle);
         }
 
-        // if the mToneGenerator creation fails, just continue without it.  It is
-        // a local audio signal, and is not as important as the dtmf tone itself.
-        synchronized (mToneGeneratorLock) {
-            if (mToneGenerator == null) {
-                try {
-                    // we want the user to be able to control the volume of the dial tones
-                    // outside of a call, so we use the stream type that is also mapped to the
-                    // volume control keys for this activity
-                    mToneGenerator = new ToneGenerator(DIAL_TONE_STREAM_TYPE, TONE_RELATIVE_VOLUME);
-                    setVolumeControlStream(DIAL_TONE_STREAM_TYPE);
-                } catch (RuntimeException e) {
-                    Log.w(LOG_TAG, "Exception caught while creating local tone generator: " + e);
-                    mToneGenerator = null;
-                }
-            }
-        }
+        // we want the user to be able to control the volume of the dial tones
+        // outside of a call, so we use the stream type that is also mapped to the
+        // volume control keys for this activity.  (The tone generator itself
+        // is acquired in onResume().)
+        mTonePlayer = PhoneApp.getInstance().getLocalTonePlayer(
+                DIAL_TONE_STREAM_TYPE, TONE_RELATIVE_VOLUME);
+        setVolumeControlStream(DIAL_TONE_STREAM_TYPE);
 
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
@@ -234,12 +224,6 @@ public class EmergencyDialer extends Activity
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        synchronized (mToneGeneratorLock) {
-            if (mToneGenerator != null) {
-                mToneGenerator.release();
-                mToneGenerator = null;
-            }
-        }
         unregisterReceiver(mBroadcastReceiver);
     }
 
@@ -446,19 +430,10 @@ public class EmergencyDialer extends Activity
         // Retrieve the haptic feedback setting.
         mHaptic.checkSystemSetting();
 
-        // if the mToneGenerator creation fails, just continue without it.  It is
-        // a local audio signal, and is not as important as the dtmf tone itself.
-        synchronized (mToneGeneratorLock) {
-            if (mToneGenerator == null) {
-                try {
-                    mToneGenerator = new ToneGenerator(AudioManager.STREAM_DTMF,
-                            TONE_RELATIVE_VOLUME);
-                } catch (RuntimeException e) {
-                    Log.w(LOG_TAG, "Exception caught while creating local tone generator: " + e);
-                    mToneGenerator = null;
-                }
-            }
-        }
+        // Hold on to the shared tone generator while we're visible.  If its
+        // creation fails, we just continue without it.  It is a local audio
+        // signal, and is not as important as the dtmf tone itself.
+        mTonePlayer.acquire();
 
         // Disable the status bar and set the poke lock timeout to medium.
         // There is no need to do anything with the wake lock.
@@ -481,12 +456,7 @@ public class EmergencyDialer extends Activity
 
         super.onPause();
 
-        synchronized (mToneGeneratorLock) {
-            if (mToneGenerator != null) {
-                mToneGenerator.release();
-                mToneGenerator = null;
-            }
-        }
+        mTonePlayer.release();
     }
 
     /**
@@ -494,7 +464,7 @@ public class EmergencyDialer extends Activity
      */
     void placeCall() {
         mLastNumber = mDigits.getText().toString();
-        if (PhoneNumberUtils.isEmergencyNumber(mLastNumber)) {
+        if (EmergencyNumberMatcher.isEmergencyNumber(mLastNumber)) {
             if (DBG) Log.d(LOG_TAG, "placing call to " + mLastNumber);
 
             // place the call if it is a valid number
@@ -545,14 +515,9 @@ public class EmergencyDialer extends Activity
             return;
         }
 
-        synchronized (mToneGeneratorLock) {
-            if (mToneGenerator == null) {
-                Log.w(LOG_TAG, "playTone: mToneGenerator == null, tone: " + tone);
-                return;
-            }
-
-            // Start the new tone (will stop any playing tone)
-            mToneGenerator.startTone(tone, TONE_LENGTH_MS);
+        // Start the new tone (will stop any playing tone)
+        if (!mTonePlayer.startTone(tone, TONE_LENGTH_MS)) {
+            Log.w(LOG_TAG, "playTone: no tone generator, tone: " + tone);
         }
     }
 
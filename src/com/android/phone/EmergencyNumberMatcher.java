@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemProperties;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Drop-in replacement for PhoneNumberUtils.isEmergencyNumber() for the
+ * phone app's hot paths (disconnect handling, outgoing call checks, the
+ * in-call controls.)
+ *
+ * PhoneNumberUtils re-reads the ECC list system properties and splits
+ * them on every call.  This class compiles the list (or the default
+ * emergency numbers, if there's no list) into a small digit trie, and
+ * only rebuilds it when the property values change, which happens when
+ * the SIM is loaded or swapped.  A lookup is then a walk of at most the
+ * length of the longest emergency number.
+ *
+ * The answers are exactly the same as PhoneNumberUtils': a number is an
+ * emergency number if its network portion starts with one of the
+ * numbers in "ril.ecclist" (or "ro.ril.ecclist", for older RILs), or
+ * with 112 or 911 if neither property is set.  SIP addresses are never
+ * emergency numbers.
+ *
+ * All methods are static and thread-safe.
+ */
+public class EmergencyNumberMatcher {
+    private static final String LOG_TAG = "EmergencyNumberMatcher";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    private static final String PROPERTY_ECC_LIST = "ril.ecclist";
+    private static final String PROPERTY_ECC_LIST_RO = "ro.ril.ecclist";
+
+    // Emergency numbers used when there's no ECC list.
+    private static final String DEFAULT_ECC_LIST = "112,911";
+
+    // Characters that can appear in the network portion of a number, and
+    // so in a matchable emergency number.
+    private static final String ALPHABET = "0123456789*#+";
+
+    // The compiled trie: node n's child for ALPHABET.charAt(i) is
+    // sChildren[n * ALPHABET.length() + i] (0 meaning none; node 0 is the
+    // root, which is never a child), and sTerminal[n] is true if an
+    // emergency number ends at node n.
+    private static int[] sChildren;
+    private static boolean[] sTerminal;
+
+    // The property value the trie was built from.
+    private static String sEccList;
+
+    // Statistics, for the debug log.
+    private static int sLookups;
+    private static int sRebuilds;
+
+    private EmergencyNumberMatcher() {
+    }
+
+    /**
+     * @return true if the number is an emergency number; see
+     *     PhoneNumberUtils.isEmergencyNumber().
+     */
+    static boolean isEmergencyNumber(String number) {
+        // If the number passed in is null, just return false:
+        if (number == null) return false;
+
+        // SIP addresses are never emergency numbers; the concept is only
+        // meaningful for calls placed over the cell network.
+        if (PhoneNumberUtils.isUriNumber(number)) {
+            return false;
+        }
+
+        // Strip the separators from the number before comparing it
+        // to the list.
+        number = PhoneNumberUtils.extractNetworkPortion(number);
+        if (number == null) return false;
+
+        String eccList = SystemProperties.get(PROPERTY_ECC_LIST);
+        if (TextUtils.isEmpty(eccList)) {
+            eccList = SystemProperties.get(PROPERTY_ECC_LIST_RO);
+        }
+        if (TextUtils.isEmpty(eccList)) {
+            eccList = DEFAULT_ECC_LIST;
+        }
+
+        synchronized (EmergencyNumberMatcher.class) {
+            if (!eccList.equals(sEccList)) {
+                compile(eccList);
+            }
+            sLookups++;
+            return matches(number);
+        }
+    }
+
+    /**
+     * Walks the trie along the number, returning true as soon as an
+     * emergency number ends (a prefix match, like PhoneNumberUtils.)
+     */
+    private static boolean matches(String number) {
+        final int width = ALPHABET.length();
+        int node = 0;
+        if (sTerminal[node]) return true;
+        for (int i = 0, len = number.length(); i < len; i++) {
+            int symbol = ALPHABET.indexOf(number.charAt(i));
+            if (symbol < 0) return false;
+            node = sChildren[node * width + symbol];
+            if (node == 0) return false;
+            if (sTerminal[node]) return true;
+        }
+        return false;
+    }
+
+    private static void compile(String eccList) {
+        final int width = ALPHABET.length();
+        String[] numbers = eccList.split(",");
+
+        // Upper bound on the number of nodes: the root, plus one per
+        // character.
+        int maxNodes = 1;
+        for (String emergencyNum : numbers) {
+            maxNodes += emergencyNum.length();
+        }
+        int[] children = new int[maxNodes * width];
+        boolean[] terminal = new boolean[maxNodes];
+        int nodes = 1;
+
+        for (String emergencyNum : numbers) {
+            int node = 0;
+            boolean matchable = true;
+            for (int i = 0; i < emergencyNum.length(); i++) {
+                int symbol = ALPHABET.indexOf(emergencyNum.charAt(i));
+                if (symbol < 0) {
+                    // No network portion can contain this character, so
+                    // nothing can start with this entry.
+                    matchable = false;
+                    break;
+                }
+                int child = children[node * width + symbol];
+                if (child == 0) {
+                    child = nodes++;
+                    children[node * width + symbol] = child;
+                }
+                node = child;
+            }
+            if (matchable) {
+                terminal[node] = true;
+            }
+        }
+
+        sChildren = children;
+        sTerminal = terminal;
+        sEccList = eccList;
+        sRebuilds++;
+        if (DBG) log("compile: '" + eccList + "', " + nodes + " nodes, after "
+                + sLookups + " lookups, " + sRebuilds + " rebuilds");
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
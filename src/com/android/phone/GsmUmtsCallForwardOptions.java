@@ -36,7 +36,14 @@ public class GsmUmtsCallForwardOptions extends TimeConsumingPreferenceActivity {
 
     private final ArrayList<CallForwardEditPreference> mPreferences =
             new ArrayList<CallForwardEditPreference> ();
-    private int mInitIndex= 0;
+
+    // The initial reads: the preferences not read yet, and those being
+    // read.  Up to mMaxReads of them are read at once; see startReads().
+    private final ArrayList<CallForwardEditPreference> mToRead =
+            new ArrayList<CallForwardEditPreference>();
+    private final ArrayList<CallForwardEditPreference> mReading =
+            new ArrayList<CallForwardEditPreference>();
+    private int mMaxReads;
 
     private boolean mFirstResume;
     private Bundle mIcicle;
@@ -63,6 +70,9 @@ public class GsmUmtsCallForwardOptions extends TimeConsumingPreferenceActivity {
         mPreferences.add(mButtonCFNRy);
         mPreferences.add(mButtonCFNRc);
 
+        mMaxReads = Math.max(1,
+                getResources().getInteger(R.integer.call_forward_max_parallel_queries));
+
         // we wait to do the initialization until onResume so that the
         // TimeConsumingPreferenceActivity dialog can display as it
         // relies on onResume / onPause to maintain its foreground state.
@@ -78,10 +88,9 @@ public class GsmUmtsCallForwardOptions extends TimeConsumingPreferenceActivity {
         if (mFirstResume) {
             if (mIcicle == null) {
                 if (DBG) Log.d(LOG_TAG, "start to init ");
-                mPreferences.get(mInitIndex).init(this, false);
+                mToRead.addAll(mPreferences);
+                startReads();
             } else {
-                mInitIndex = mPreferences.size();
-
                 for (CallForwardEditPreference pref : mPreferences) {
                     Bundle bundle = mIcicle.getParcelable(pref.getKey());
                     pref.setToggled(bundle.getBoolean(KEY_TOGGLE));
@@ -112,11 +121,23 @@ public class GsmUmtsCallForwardOptions extends TimeConsumingPreferenceActivity {
         }
     }
 
+    /**
+     * Starts the next initial reads, as long as fewer than mMaxReads are
+     * outstanding.  Preferences with cached values show them right away,
+     * and only check them against the network.
+     */
+    private void startReads() {
+        while (!mToRead.isEmpty() && mReading.size() < mMaxReads && !isFinishing()) {
+            CallForwardEditPreference pref = mToRead.remove(0);
+            mReading.add(pref);
+            pref.init(this, false);
+        }
+    }
+
     @Override
     public void onFinished(Preference preference, boolean reading) {
-        if (mInitIndex < mPreferences.size()-1 && !isFinishing()) {
-            mInitIndex++;
-            mPreferences.get(mInitIndex).init(this, false);
+        if (reading && mReading.remove(preference)) {
+            startReads();
         }
 
         super.onFinished(preference, reading);
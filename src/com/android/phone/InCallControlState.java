@@ -16,7 +16,6 @@
 
 package com.android.phone;
 
-import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 
 import com.android.internal.telephony.Call;
@@ -24,6 +23,7 @@ import com.android.internal.telephony.Connection;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.CallManager;
 
+import java.io.PrintWriter;
 
 /**
  * Helper class to keep track of enabledness, visibility, and "on/off"
@@ -40,14 +40,73 @@ import com.android.internal.telephony.CallManager;
  *
  * (In other words, this is the "model" that corresponds to the "view"
  * implemented by InCallMenu and InCallTouchUi.)
+ *
+ * The model is updated incrementally: update() reads a handful of cheap
+ * inputs (the call state "signature", the audio route, the bluetooth
+ * state and a few InCallScreen UI flags), and only recomputes the flags
+ * that depend on an input that actually changed.  In particular the
+ * relatively expensive telephony checks (okToAddCall(), okToSwapCalls(),
+ * okToMergeCalls(), isConferenceCall(), isEmergencyNumber()...) only run
+ * when the call state changes, rather than on every UI update.
  */
 public class InCallControlState {
     private static final String LOG_TAG = "InCallControlState";
     private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
 
+    // Inputs the flags are computed from.
+    private static final int INPUT_CALL_STATE = 1 << 0;
+    private static final int INPUT_UI_MODE = 1 << 1;
+    private static final int INPUT_BLUETOOTH = 1 << 2;
+    private static final int INPUT_AUDIO = 1 << 3;
+    private static final int INPUT_DIALPAD = 1 << 4;
+    private static final int INPUT_ALL = (1 << 5) - 1;
+    private static final int NUM_INPUTS = 5;
+    private static final String[] INPUT_NAMES = {
+        "callState", "uiMode", "bluetooth", "audio", "dialpad"
+    };
+
+    // Groups of flags, for the update() debug log and statistics.
+    private static final int CHANGED_MANAGE_CONFERENCE = 1 << 0;
+    private static final int CHANGED_ADD_CALL = 1 << 1;
+    private static final int CHANGED_SWAP_MERGE = 1 << 2;
+    private static final int CHANGED_BLUETOOTH = 1 << 3;
+    private static final int CHANGED_SPEAKER = 1 << 4;
+    private static final int CHANGED_MUTE = 1 << 5;
+    private static final int CHANGED_DIALPAD = 1 << 6;
+    private static final int CHANGED_HOLD = 1 << 7;
+
+    // Statistics, reported by dumpStats(): the number of update() calls,
+    // and how often each input changed (and so caused its dependent
+    // flags to be recomputed.)
+    private static int sUpdates;
+    private static int sUpdatesWithChanges;
+    private static final int[] sInputChanges = new int[NUM_INPUTS];
+
     private InCallScreen mInCallScreen;
     private CallManager mCM;
 
+    // Inputs that must be recomputed on the next update() regardless of
+    // whether they look unchanged.
+    private int mForcedInputs = INPUT_ALL;
+
+    // Last seen value of each input.
+    private Call mFgCall;
+    private Call.State mFgCallState;
+    private Call.State mBgCallState;
+    private boolean mHasRingingCall;
+    private Connection mLatestConnection;
+    private int mConnectionCount;
+    private int mBgConnectionCount;
+    private CdmaPhoneCallState.PhoneCallState mCdmaCallState;
+    private boolean mCdmaAddCallAfterCallWaiting;
+    private boolean mCdmaThreeWayDialing;
+    private boolean mManageConferenceMode;
+    private boolean mBluetoothAvailable;
+    private boolean mBluetoothAudioConnectedOrPending;
+    private boolean mSpeakerOn;
+    private boolean mMute;
+    private boolean mDialerOpened;
+
     //
     // Our "public API": Boolean flags to indicate the state and/or
     // enabledness of all possible in-call user operations:
@@ -84,6 +143,10 @@ public class InCallControlState {
     // should be visible.
     public boolean canHold;
 
+    // Whether the foreground call is an emergency call; only recomputed
+    // when the call state changes.
+    private boolean mIsEmergencyCall;
+
 
     public InCallControlState(InCallScreen inCallScreen, CallManager cm) {
         if (DBG) log("InCallControlState constructor...");
@@ -92,93 +155,251 @@ public class InCallControlState {
     }
 
     /**
-     * Updates all our public boolean flags based on the current state of
-     * the Phone.
+     * Forces all the flags to be recomputed on the next update(), even
+     * if none of the inputs appear to have changed.
+     */
+    public void invalidate() {
+        mForcedInputs = INPUT_ALL;
+    }
+
+    /**
+     * Updates our public boolean flags based on the current state of the
+     * Phone, recomputing only the ones whose inputs have changed since
+     * the last update.
      */
     public void update() {
-        final Call fgCall = mCM.getActiveFgCall();
-        final Call.State fgCallState = fgCall.getState();
+        sUpdates++;
+        final int changedInputs = readInputs() | mForcedInputs;
+        mForcedInputs = 0;
+        for (int i = 0; i < NUM_INPUTS; i++) {
+            if ((changedInputs & (1 << i)) != 0) sInputChanges[i]++;
+        }
+        if (changedInputs == 0) {
+            return;
+        }
+
+        int changes = 0;
+        final Call fgCall = mFgCall;
+        final Call.State fgCallState = mFgCallState;
         final boolean hasActiveForegroundCall = (fgCallState == Call.State.ACTIVE);
-        final boolean hasHoldingCall = mCM.hasActiveBgCall();
-
-        // Manage conference:
-        if (TelephonyCapabilities.supportsConferenceCallManagement(fgCall.getPhone())) {
-            // This item is visible only if the foreground call is a
-            // conference call, and it's enabled unless the "Manage
-            // conference" UI is already up.
-            manageConferenceVisible = PhoneUtils.isConferenceCall(fgCall);
-            manageConferenceEnabled =
-                    manageConferenceVisible && !mInCallScreen.isManageConferenceMode();
-        } else {
-            // This device has no concept of managing a conference call.
-            manageConferenceVisible = false;
-            manageConferenceEnabled = false;
-        }
-
-        // "Add call":
-        canAddCall = PhoneUtils.okToAddCall(mCM);
-
-        // Swap / merge calls
-        canSwap = PhoneUtils.okToSwapCalls(mCM);
-        canMerge = PhoneUtils.okToMergeCalls(mCM);
-
-        // "Bluetooth":
-        if (mInCallScreen.isBluetoothAvailable()) {
-            bluetoothEnabled = true;
-            bluetoothIndicatorOn = mInCallScreen.isBluetoothAudioConnectedOrPending();
-        } else {
-            bluetoothEnabled = false;
-            bluetoothIndicatorOn = false;
-        }
-
-        // "Speaker": always enabled.
-        // The current speaker state comes from the AudioManager.
-        speakerEnabled = true;
-        speakerOn = PhoneUtils.isSpeakerOn(mInCallScreen);
-
-        // "Mute": only enabled when the foreground call is ACTIVE.
-        // (It's meaningless while on hold, or while DIALING/ALERTING.)
-        // It's also explicitly disabled during emergency calls.
-        Connection c = fgCall.getLatestConnection();
-        boolean isEmergencyCall = false;
-        if (c != null) isEmergencyCall = PhoneNumberUtils.isEmergencyNumber(c.getAddress());
-        if (isEmergencyCall) { // disable "Mute" item
-            canMute = false;
-            muteIndicatorOn = false;
-        } else {
-            canMute = hasActiveForegroundCall;
-            muteIndicatorOn = PhoneUtils.getMute();
-        }
-
-        // "Dialpad": Enabled only when it's OK to use the dialpad in the
-        // first place.
-        dialpadEnabled = mInCallScreen.okToShowDialpad();
-
-        // Also keep track of whether the dialpad is currently "opened"
-        // (i.e. visible).
-        dialpadVisible = mInCallScreen.isDialerOpened();
-
-        // "Hold:
-        if (TelephonyCapabilities.supportsHoldAndUnhold(fgCall.getPhone())) {
-            // This phone has the concept of explicit "Hold" and "Unhold" actions.
-            supportsHold = true;
-            // "On hold" means that there's a holding call and
-            // *no* foreground call.  (If there *is* a foreground call,
-            // that's "two lines in use".)
-            onHold = hasHoldingCall && (fgCallState == Call.State.IDLE);
-            // The "Hold" control is disabled entirely if there's
-            // no way to either hold or unhold in the current state.
-            boolean okToHold = hasActiveForegroundCall && !hasHoldingCall;
-            boolean okToUnhold = onHold;
-            canHold = okToHold || okToUnhold;
-        } else {
-            // This device has no concept of "putting a call on hold."
-            supportsHold = false;
-            onHold = false;
-            canHold = false;
+        final boolean hasHoldingCall = mBgCallState.isAlive();
+
+        if ((changedInputs & (INPUT_CALL_STATE | INPUT_UI_MODE)) != 0) {
+            // Manage conference:
+            boolean visible;
+            boolean enabled;
+            if (TelephonyCapabilities.supportsConferenceCallManagement(fgCall.getPhone())) {
+                // This item is visible only if the foreground call is a
+                // conference call, and it's enabled unless the "Manage
+                // conference" UI is already up.
+                visible = PhoneUtils.isConferenceCall(fgCall);
+                enabled = visible && !mManageConferenceMode;
+            } else {
+                // This device has no concept of managing a conference call.
+                visible = false;
+                enabled = false;
+            }
+            if (visible != manageConferenceVisible || enabled != manageConferenceEnabled) {
+                manageConferenceVisible = visible;
+                manageConferenceEnabled = enabled;
+                changes |= CHANGED_MANAGE_CONFERENCE;
+            }
+
+            // "Dialpad": Enabled only when it's OK to use the dialpad in the
+            // first place.
+            boolean okToShowDialpad = mInCallScreen.okToShowDialpad();
+            if (okToShowDialpad != dialpadEnabled) {
+                dialpadEnabled = okToShowDialpad;
+                changes |= CHANGED_DIALPAD;
+            }
+        }
+
+        if ((changedInputs & INPUT_CALL_STATE) != 0) {
+            // "Add call":
+            boolean okToAddCall = PhoneUtils.okToAddCall(mCM);
+            if (okToAddCall != canAddCall) {
+                canAddCall = okToAddCall;
+                changes |= CHANGED_ADD_CALL;
+            }
+
+            // Swap / merge calls
+            boolean okToSwap = PhoneUtils.okToSwapCalls(mCM);
+            boolean okToMerge = PhoneUtils.okToMergeCalls(mCM);
+            if (okToSwap != canSwap || okToMerge != canMerge) {
+                canSwap = okToSwap;
+                canMerge = okToMerge;
+                changes |= CHANGED_SWAP_MERGE;
+            }
+
+            // "Hold:
+            boolean newSupportsHold;
+            boolean newOnHold;
+            boolean newCanHold;
+            if (TelephonyCapabilities.supportsHoldAndUnhold(fgCall.getPhone())) {
+                // This phone has the concept of explicit "Hold" and "Unhold" actions.
+                newSupportsHold = true;
+                // "On hold" means that there's a holding call and
+                // *no* foreground call.  (If there *is* a foreground call,
+                // that's "two lines in use".)
+                newOnHold = hasHoldingCall && (fgCallState == Call.State.IDLE);
+                // The "Hold" control is disabled entirely if there's
+                // no way to either hold or unhold in the current state.
+                boolean okToHold = hasActiveForegroundCall && !hasHoldingCall;
+                boolean okToUnhold = newOnHold;
+                newCanHold = okToHold || okToUnhold;
+            } else {
+                // This device has no concept of "putting a call on hold."
+                newSupportsHold = false;
+                newOnHold = false;
+                newCanHold = false;
+            }
+            if (newSupportsHold != supportsHold || newOnHold != onHold
+                    || newCanHold != canHold) {
+                supportsHold = newSupportsHold;
+                onHold = newOnHold;
+                canHold = newCanHold;
+                changes |= CHANGED_HOLD;
+            }
+
+            Connection c = mLatestConnection;
+            mIsEmergencyCall = (c != null) && EmergencyNumberMatcher.isEmergencyNumber(c.getAddress());
+        }
+
+        if ((changedInputs & INPUT_BLUETOOTH) != 0) {
+            // "Bluetooth":
+            boolean enabled = mBluetoothAvailable;
+            boolean indicatorOn = mBluetoothAvailable && mBluetoothAudioConnectedOrPending;
+            if (enabled != bluetoothEnabled || indicatorOn != bluetoothIndicatorOn) {
+                bluetoothEnabled = enabled;
+                bluetoothIndicatorOn = indicatorOn;
+                changes |= CHANGED_BLUETOOTH;
+            }
+        }
+
+        if ((changedInputs & INPUT_AUDIO) != 0) {
+            // "Speaker": always enabled.
+            // The current speaker state comes from the AudioManager.
+            if (!speakerEnabled || mSpeakerOn != speakerOn) {
+                speakerEnabled = true;
+                speakerOn = mSpeakerOn;
+                changes |= CHANGED_SPEAKER;
+            }
+        }
+
+        if ((changedInputs & (INPUT_CALL_STATE | INPUT_AUDIO)) != 0) {
+            // "Mute": only enabled when the foreground call is ACTIVE.
+            // (It's meaningless while on hold, or while DIALING/ALERTING.)
+            // It's also explicitly disabled during emergency calls.
+            boolean newCanMute;
+            boolean newMuteIndicatorOn;
+            if (mIsEmergencyCall) { // disable "Mute" item
+                newCanMute = false;
+                newMuteIndicatorOn = false;
+            } else {
+                newCanMute = hasActiveForegroundCall;
+                newMuteIndicatorOn = mMute;
+            }
+            if (newCanMute != canMute || newMuteIndicatorOn != muteIndicatorOn) {
+                canMute = newCanMute;
+                muteIndicatorOn = newMuteIndicatorOn;
+                changes |= CHANGED_MUTE;
+            }
+        }
+
+        if ((changedInputs & INPUT_DIALPAD) != 0) {
+            // Also keep track of whether the dialpad is currently "opened"
+            // (i.e. visible).
+            if (mDialerOpened != dialpadVisible) {
+                dialpadVisible = mDialerOpened;
+                changes |= CHANGED_DIALPAD;
+            }
         }
 
+        if (DBG) log("update: inputs 0x" + Integer.toHexString(changedInputs)
+                + " -> changes 0x" + Integer.toHexString(changes));
         if (DBG) dumpState();
+
+        if (changes != 0) {
+            sUpdatesWithChanges++;
+        }
+    }
+
+    /**
+     * Reads the current value of all our inputs.  These are all cheap
+     * (in-process) lookups.
+     *
+     * @return bitmask of the INPUT_* values that changed
+     */
+    private int readInputs() {
+        int changed = 0;
+
+        final Call fgCall = mCM.getActiveFgCall();
+        final Call.State fgCallState = fgCall.getState();
+        final Call.State bgCallState = mCM.getFirstActiveBgCall().getState();
+        final boolean hasRingingCall = mCM.hasActiveRingingCall();
+        final Connection latestConnection = fgCall.getLatestConnection();
+        final int connectionCount = fgCall.getConnections().size();
+        // okToMergeCalls() depends on whether the background call is full.
+        final int bgConnectionCount = mCM.getFirstActiveBgCall().getConnections().size();
+        CdmaPhoneCallState.PhoneCallState cdmaCallState = null;
+        boolean cdmaAddCallAfterCallWaiting = false;
+        boolean cdmaThreeWayDialing = false;
+        final CdmaPhoneCallState cdmaPhoneCallState = PhoneApp.getInstance().cdmaPhoneCallState;
+        if (cdmaPhoneCallState != null) {
+            cdmaCallState = cdmaPhoneCallState.getCurrentCallState();
+            cdmaAddCallAfterCallWaiting = cdmaPhoneCallState.getAddCallMenuStateAfterCallWaiting();
+            cdmaThreeWayDialing = cdmaPhoneCallState.IsThreeWayCallOrigStateDialing();
+        }
+        if (fgCall != mFgCall || fgCallState != mFgCallState || bgCallState != mBgCallState
+                || hasRingingCall != mHasRingingCall || latestConnection != mLatestConnection
+                || connectionCount != mConnectionCount
+                || bgConnectionCount != mBgConnectionCount || cdmaCallState != mCdmaCallState
+                || cdmaAddCallAfterCallWaiting != mCdmaAddCallAfterCallWaiting
+                || cdmaThreeWayDialing != mCdmaThreeWayDialing) {
+            mFgCall = fgCall;
+            mFgCallState = fgCallState;
+            mBgCallState = bgCallState;
+            mHasRingingCall = hasRingingCall;
+            mLatestConnection = latestConnection;
+            mConnectionCount = connectionCount;
+            mBgConnectionCount = bgConnectionCount;
+            mCdmaCallState = cdmaCallState;
+            mCdmaAddCallAfterCallWaiting = cdmaAddCallAfterCallWaiting;
+            mCdmaThreeWayDialing = cdmaThreeWayDialing;
+            changed |= INPUT_CALL_STATE;
+        }
+
+        final boolean manageConferenceMode = mInCallScreen.isManageConferenceMode();
+        if (manageConferenceMode != mManageConferenceMode) {
+            mManageConferenceMode = manageConferenceMode;
+            changed |= INPUT_UI_MODE;
+        }
+
+        final boolean bluetoothAvailable = mInCallScreen.isBluetoothAvailable();
+        final boolean bluetoothAudio =
+                bluetoothAvailable && mInCallScreen.isBluetoothAudioConnectedOrPending();
+        if (bluetoothAvailable != mBluetoothAvailable
+                || bluetoothAudio != mBluetoothAudioConnectedOrPending) {
+            mBluetoothAvailable = bluetoothAvailable;
+            mBluetoothAudioConnectedOrPending = bluetoothAudio;
+            changed |= INPUT_BLUETOOTH;
+        }
+
+        final boolean speaker = PhoneUtils.isSpeakerOn(mInCallScreen);
+        final boolean mute = PhoneUtils.getMute();
+        if (speaker != mSpeakerOn || mute != mMute) {
+            mSpeakerOn = speaker;
+            mMute = mute;
+            changed |= INPUT_AUDIO;
+        }
+
+        final boolean dialerOpened = mInCallScreen.isDialerOpened();
+        if (dialerOpened != mDialerOpened) {
+            mDialerOpened = dialerOpened;
+            changed |= INPUT_DIALPAD;
+        }
+
+        return changed;
     }
 
     public void dumpState() {
@@ -200,6 +421,21 @@ public class InCallControlState {
         log("  canHold: " + canHold);
     }
 
+    /**
+     * Prints the update counters: how many updates there were, how many
+     * of them changed any flag, and how often each input changed.  Every
+     * update where the call state input didn't change is one where the
+     * telephony checks were skipped entirely.
+     */
+    static void dumpStats(PrintWriter pw) {
+        pw.println("In-call control state:");
+        pw.println("  updates=" + sUpdates + " withChanges=" + sUpdatesWithChanges);
+        for (int i = 0; i < NUM_INPUTS; i++) {
+            pw.println("  " + INPUT_NAMES[i] + ": changed=" + sInputChanges[i]
+                    + " skipped=" + (sUpdates - sInputChanges[i]));
+        }
+    }
+
     private void log(String msg) {
         Log.d(LOG_TAG, msg);
     }
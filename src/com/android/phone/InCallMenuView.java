@@ -27,6 +27,7 @@ import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 
@@ -84,6 +85,28 @@ class InCallMenuView extends ViewGroup {
     private int mNumVisibleItemsForRow[] = new int[NUM_ROWS];
     private int mNumVisibleRows;
 
+    /**
+     * Bitmask of the visible items (bit row * MAX_ITEMS_PER_ROW + index),
+     * computed by updateVisibility().
+     */
+    private int mVisibleItemsMask;
+
+    /**
+     * The size and set of visible items that the current child positions
+     * (and divider rects) were computed for.  The menu is re-measured
+     * every time it's shown, but as long as neither the size (which only
+     * changes with the configuration) nor the visible items changed,
+     * positionChildren() doesn't need to run again.
+     */
+    private boolean mPositionsValid;
+    private int mPositionedWidth;
+    private int mPositionedHeight;
+    private int mPositionedItemsMask;
+
+    // Statistics for positionChildren() caching, process-wide.
+    private static int sPositionPasses;
+    private static int sPositionPassesSkipped;
+
     /**
      * Reference to the InCallScreen activity that owns us.  This will be
      * null if we haven't been initialized yet *or* after the InCallScreen
@@ -209,6 +232,7 @@ class InCallMenuView extends ViewGroup {
         if (DBG) log("updateVisibility()...");
 
         mNumVisibleRows = 0;
+        mVisibleItemsMask = 0;
 
         for (int row = 0; row < NUM_ROWS; row++) {
             InCallMenuItemView[] thisRow = mItems[row];
@@ -216,7 +240,10 @@ class InCallMenuView extends ViewGroup {
             int numVisibleThisRow = 0;
             for (int itemIndex = 0; itemIndex < numItemsThisRow; itemIndex++) {
                 // if (DBG) log("  - Checking item: " + mItems[row][itemIndex]);
-                if  (mItems[row][itemIndex].isVisible()) numVisibleThisRow++;
+                if  (mItems[row][itemIndex].isVisible()) {
+                    numVisibleThisRow++;
+                    mVisibleItemsMask |= 1 << (row * MAX_ITEMS_PER_ROW + itemIndex);
+                }
             }
             if (DBG) log("==> Num visible for row " + row + ": " + numVisibleThisRow);
             mNumVisibleItemsForRow[row] = numVisibleThisRow;
@@ -356,8 +383,50 @@ class InCallMenuView extends ViewGroup {
         setMeasuredDimension(resolveSize(Integer.MAX_VALUE, widthMeasureSpec),
                              resolveSize(desiredHeight, heightMeasureSpec));
 
-        // Position the children
-        positionChildren(mMeasuredWidth, mMeasuredHeight);
+        // Position the children, unless they're already positioned for
+        // exactly this size and set of visible items.
+        if (mPositionsValid
+                && mPositionedWidth == mMeasuredWidth
+                && mPositionedHeight == mMeasuredHeight
+                && mPositionedItemsMask == mVisibleItemsMask) {
+            sPositionPassesSkipped++;
+            measureChildrenAtCachedPositions();
+        } else {
+            sPositionPasses++;
+            positionChildren(mMeasuredWidth, mMeasuredHeight);
+            mPositionsValid = true;
+            mPositionedWidth = mMeasuredWidth;
+            mPositionedHeight = mMeasuredHeight;
+            mPositionedItemsMask = mVisibleItemsMask;
+        }
+    }
+
+    /**
+     * Re-measures the visible children at the positions computed by the
+     * last positionChildren() call.  (View.measure() is a no-op for
+     * children whose content hasn't changed.)
+     */
+    private void measureChildrenAtCachedPositions() {
+        for (int row = 0; row < NUM_ROWS; row++) {
+            for (int itemIndex = 0; itemIndex < mNumItemsForRow[row]; itemIndex++) {
+                InCallMenuItemView child = mItems[row][itemIndex];
+                if (!child.isVisible()) continue;
+                InCallMenuView.LayoutParams lp =
+                        (InCallMenuView.LayoutParams) child.getLayoutParams();
+                child.measure(
+                        MeasureSpec.makeMeasureSpec(lp.right - lp.left, MeasureSpec.EXACTLY),
+                        MeasureSpec.makeMeasureSpec(lp.bottom - lp.top, MeasureSpec.EXACTLY));
+            }
+        }
+    }
+
+    /**
+     * Prints how often the child positions were computed, versus reused
+     * from the previous measure pass.
+     */
+    static void dumpStats(PrintWriter pw) {
+        pw.println("InCallMenuView layout: positioned=" + sPositionPasses
+                + " reused=" + sPositionPassesSkipped);
     }
 
     @Override
@@ -41,7 +41,6 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.provider.Settings;
-import android.telephony.PhoneNumberUtils;
 import android.telephony.ServiceState;
 import android.text.TextUtils;
 import android.text.method.DialerKeyListener;
@@ -53,6 +52,7 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewStub;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.accessibility.AccessibilityEvent;
@@ -72,6 +72,7 @@ import com.android.internal.telephony.Phone;
 import com.android.phone.OtaUtils.CdmaOtaInCallScreenUiState;
 import com.android.phone.OtaUtils.CdmaOtaScreenState;
 
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
@@ -171,6 +172,12 @@ public class InCallScreen extends Activity
     private static final int EVENT_PAUSE_DIALOG_COMPLETE = 120;
     private static final int EVENT_HIDE_PROVIDER_OVERLAY = 121;  // Time to remove the overlay.
     private static final int REQUEST_UPDATE_TOUCH_UI = 122;
+    private static final int REQUEST_UPDATE_SCREEN = 123;
+
+    // Minimum interval between two updateScreen() calls triggered by
+    // phone state changes; bursts of PHONE_STATE_CHANGED events (like
+    // during a conference merge) get coalesced into one update per frame.
+    private static final int SCREEN_UPDATE_MIN_INTERVAL = 16;  // msec
 
     //following constants are used for OTA Call
     public static final String ACTION_SHOW_ACTIVATION =
@@ -254,12 +261,15 @@ public class InCallScreen extends Activity
     // UI controls:
     private InCallControlState mInCallControlState;
     private InCallMenu mInCallMenu;  // used on some devices
+    // True while the in-call menu panel is onscreen.  The menu items
+    // are only kept up to date while the menu is showing; they're
+    // refreshed anyway every time the menu is opened.
+    private boolean mInCallMenuShowing;
     private InCallTouchUi mInCallTouchUi;  // used on some devices
     private ManageConferenceUtils mManageConferenceUtils;
 
-    // DTMF Dialer controller and its view:
+    // DTMF Dialer controller (which owns the dialpad view):
     private DTMFTwelveKeyDialer mDialer;
-    private DTMFTwelveKeyDialerView mDialerView;
 
     // TODO: Move these providers related fields in their own class.
     // Optional overlay when a 3rd party provider is used.
@@ -313,6 +323,132 @@ public class InCallScreen extends Activity
     // delayedCleanupAfterDisconnect().)
     private Connection.DisconnectCause mLastDisconnectCause;
 
+    // Time of the most recent updateScreen(), in SystemClock.uptimeMillis()
+    // time base.  Used to rate-limit requestUpdateScreen().
+    private long mLastScreenUpdateTime;
+
+    // Inputs of the CallCard and in-call background as of the last
+    // update; see updateScreen(boolean).
+    private final CallStateSnapshot mCallCardSnapshot = new CallStateSnapshot();
+    private int mLastBackgroundResId;
+    private int mLastMenuButtonHintVisibility = -1;
+
+    // updateScreen() counters, process-wide so they survive the
+    // InCallScreen being recreated.  See dumpUpdateStats().
+    private static int sScreenUpdateRequests;
+    private static int sScreenUpdatesCoalesced;
+    private static int sScreenUpdates;
+    private static int sCallCardUpdatesSkipped;
+    private static int sBackgroundUpdatesSkipped;
+    private static long sScreenUpdateTotalNanos;
+    private static long sScreenUpdateMaxNanos;
+    private static int sMenuUpdates;
+    private static int sMenuUpdatesSkipped;
+
+    /**
+     * The subset of the CallManager state that the CallCard and the
+     * in-call background depend on.  update() copies the current state
+     * in place (so it never allocates) and reports whether anything
+     * changed since the previous call.  Besides the identity of the
+     * latest connections, this includes the fields of theirs that can
+     * change in place: the address and CNAP name (CDMA call waiting,
+     * late caller id) and the post-dial state.
+     */
+    private static class CallStateSnapshot {
+        private boolean mValid;
+        private Phone.State mState;
+        private Call mFgCall;
+        private Call mBgCall;
+        private Call mRingingCall;
+        private Call.State mFgState;
+        private Call.State mBgState;
+        private Call.State mRingingState;
+        private int mFgConnections;
+        private int mBgConnections;
+        private Connection mFgLatestConnection;
+        private Connection mRingingLatestConnection;
+        private String mFgAddress;
+        private String mFgCnapName;
+        private Connection.PostDialState mFgPostDialState;
+        private String mRingingAddress;
+        private String mRingingCnapName;
+        private boolean mBluetoothIndication;
+        private CdmaPhoneCallState.PhoneCallState mCdmaCallState;
+
+        void invalidate() {
+            mValid = false;
+        }
+
+        boolean update(CallManager cm, PhoneApp app) {
+            final Phone.State state = cm.getState();
+            final Call fgCall = cm.getActiveFgCall();
+            final Call bgCall = cm.getFirstActiveBgCall();
+            final Call ringingCall = cm.getFirstActiveRingingCall();
+            final Call.State fgState = fgCall.getState();
+            final Call.State bgState = bgCall.getState();
+            final Call.State ringingState = ringingCall.getState();
+            final int fgConnections = fgCall.getConnections().size();
+            final int bgConnections = bgCall.getConnections().size();
+            final Connection fgLatestConnection = fgCall.getLatestConnection();
+            final Connection ringingLatestConnection = ringingCall.getLatestConnection();
+            final String fgAddress =
+                    (fgLatestConnection != null) ? fgLatestConnection.getAddress() : null;
+            final String fgCnapName =
+                    (fgLatestConnection != null) ? fgLatestConnection.getCnapName() : null;
+            final Connection.PostDialState fgPostDialState =
+                    (fgLatestConnection != null) ? fgLatestConnection.getPostDialState() : null;
+            final String ringingAddress =
+                    (ringingLatestConnection != null) ? ringingLatestConnection.getAddress() : null;
+            final String ringingCnapName =
+                    (ringingLatestConnection != null) ? ringingLatestConnection.getCnapName() : null;
+            final boolean bluetoothIndication = app.showBluetoothIndication();
+            final CdmaPhoneCallState.PhoneCallState cdmaCallState =
+                    (app.cdmaPhoneCallState != null)
+                    ? app.cdmaPhoneCallState.getCurrentCallState() : null;
+
+            boolean changed = !mValid
+                    || state != mState
+                    || fgCall != mFgCall
+                    || bgCall != mBgCall
+                    || ringingCall != mRingingCall
+                    || fgState != mFgState
+                    || bgState != mBgState
+                    || ringingState != mRingingState
+                    || fgConnections != mFgConnections
+                    || bgConnections != mBgConnections
+                    || fgLatestConnection != mFgLatestConnection
+                    || ringingLatestConnection != mRingingLatestConnection
+                    || !TextUtils.equals(fgAddress, mFgAddress)
+                    || !TextUtils.equals(fgCnapName, mFgCnapName)
+                    || fgPostDialState != mFgPostDialState
+                    || !TextUtils.equals(ringingAddress, mRingingAddress)
+                    || !TextUtils.equals(ringingCnapName, mRingingCnapName)
+                    || bluetoothIndication != mBluetoothIndication
+                    || cdmaCallState != mCdmaCallState;
+
+            mValid = true;
+            mState = state;
+            mFgCall = fgCall;
+            mBgCall = bgCall;
+            mRingingCall = ringingCall;
+            mFgState = fgState;
+            mBgState = bgState;
+            mRingingState = ringingState;
+            mFgConnections = fgConnections;
+            mBgConnections = bgConnections;
+            mFgLatestConnection = fgLatestConnection;
+            mRingingLatestConnection = ringingLatestConnection;
+            mFgAddress = fgAddress;
+            mFgCnapName = fgCnapName;
+            mFgPostDialState = fgPostDialState;
+            mRingingAddress = ringingAddress;
+            mRingingCnapName = ringingCnapName;
+            mBluetoothIndication = bluetoothIndication;
+            mCdmaCallState = cdmaCallState;
+            return changed;
+        }
+    }
+
 
     private Handler mHandler = new Handler() {
         @Override
@@ -498,6 +634,10 @@ public class InCallScreen extends Activity
                 case REQUEST_UPDATE_TOUCH_UI:
                     updateInCallTouchUi();
                     break;
+
+                case REQUEST_UPDATE_SCREEN:
+                    updateScreen(false);  // only rebind what changed
+                    break;
             }
         }
     };
@@ -578,30 +718,34 @@ public class InCallScreen extends Activity
         //   above the main cluster of InCallTouchUi buttons
         //   (see non_drawer_dialpad.xml).
         //
-        // TODO: These should both be ViewStubs, and right here we should
-        // inflate one or the other.  (Also, while doing that, let's also
+        // On "full touch" devices the dialpad is hidden until the user
+        // presses the "Dialpad" button, which most calls never do, so it
+        // lives in a ViewStub and the DTMFTwelveKeyDialer inflates it the
+        // first time it's opened.  The SlidingDrawer-based dialpad's handle
+        // is visible for the whole call, so there's no point deferring it.
+        //
+        // TODO: The SlidingDrawer should be a ViewStub too, inflated only
+        // on the devices that use it.  (Also, while doing that, let's also
         // move this block of code over to initInCallScreen().)
         //
-        SlidingDrawer dialerDrawer;
         if (isTouchUiEnabled()) {
             // This is a "full touch" device.
-            mDialerView = (DTMFTwelveKeyDialerView) findViewById(R.id.non_drawer_dtmf_dialer);
-            if (DBG) log("- Full touch device!  Found dialerView: " + mDialerView);
-            dialerDrawer = null;  // No SlidingDrawer used on this device.
+            ViewStub dialerViewStub = (ViewStub) findViewById(R.id.nonDrawerDtmfDialerStub);
+            if (DBG) log("- Full touch device!  Found dialerViewStub: " + dialerViewStub);
+            mDialer = new DTMFTwelveKeyDialer(this, dialerViewStub);
         } else {
             // Use the old-style dialpad contained within the SlidingDrawer.
-            mDialerView = (DTMFTwelveKeyDialerView) findViewById(R.id.dtmf_dialer);
-            if (DBG) log("- Using SlidingDrawer-based dialpad.  Found dialerView: " + mDialerView);
-            dialerDrawer = (SlidingDrawer) findViewById(R.id.dialer_container);
+            DTMFTwelveKeyDialerView dialerView =
+                    (DTMFTwelveKeyDialerView) findViewById(R.id.dtmf_dialer);
+            if (DBG) log("- Using SlidingDrawer-based dialpad.  Found dialerView: " + dialerView);
+            SlidingDrawer dialerDrawer = (SlidingDrawer) findViewById(R.id.dialer_container);
             if (DBG) log("  ...and the SlidingDrawer: " + dialerDrawer);
+            // Sanity-check that at least the dialer view is present:
+            if (dialerView == null) {
+                Log.e(LOG_TAG, "onCreate: couldn't find dialerView", new IllegalStateException());
+            }
+            mDialer = new DTMFTwelveKeyDialer(this, dialerView, dialerDrawer);
         }
-        // Sanity-check that (regardless of the device) at least the
-        // dialer view is present:
-        if (mDialerView == null) {
-            Log.e(LOG_TAG, "onCreate: couldn't find dialerView", new IllegalStateException());
-        }
-        // Finally, create the DTMFTwelveKeyDialer instance.
-        mDialer = new DTMFTwelveKeyDialer(this, mDialerView, dialerDrawer);
 
         registerForPhoneStates();
 
@@ -1452,6 +1596,9 @@ public class InCallScreen extends Activity
     public void onWindowFocusChanged(boolean hasFocus) {
         // the dtmf tones should no longer be played
         if (VDBG) log("onWindowFocusChanged(" + hasFocus + ")...");
+        if (hasFocus) {
+            Profiler.callScreenFirstFrame();
+        }
         if (!hasFocus && mDialer != null) {
             if (VDBG) log("- onWindowFocusChanged: faking onDialerKeyUp()...");
             mDialer.onDialerKeyUp(null);
@@ -1704,7 +1851,7 @@ public class InCallScreen extends Activity
             return;
         }
 
-        updateScreen();
+        requestUpdateScreen();
 
         // Make sure we update the poke lock and wake lock when certain
         // phone state changes occur.
@@ -2327,12 +2474,41 @@ public class InCallScreen extends Activity
         mWildPromptText.requestFocus();
     }
 
+    /**
+     * Asynchronous version of updateScreen(), used for phone state
+     * changes.  Requests arriving within SCREEN_UPDATE_MIN_INTERVAL of
+     * the previous update are coalesced into a single update, and that
+     * update only rebinds the widgets whose inputs actually changed.
+     */
+    private void requestUpdateScreen() {
+        sScreenUpdateRequests++;
+        if (mHandler.hasMessages(REQUEST_UPDATE_SCREEN)) {
+            sScreenUpdatesCoalesced++;
+            return;
+        }
+        long delay = mLastScreenUpdateTime + SCREEN_UPDATE_MIN_INTERVAL
+                - SystemClock.uptimeMillis();
+        mHandler.sendEmptyMessageDelayed(REQUEST_UPDATE_SCREEN, Math.max(0, delay));
+    }
+
     /**
      * Updates the state of the in-call UI based on the current state of
      * the Phone.
      */
     private void updateScreen() {
-        if (DBG) log("updateScreen()...");
+        updateScreen(true);
+    }
+
+    /**
+     * Updates the state of the in-call UI based on the current state of
+     * the Phone.
+     *
+     * @param forceFullUpdate if false, the CallCard, background and menu
+     *     button hint are left alone if their inputs haven't changed
+     *     since the previous update.
+     */
+    private void updateScreen(boolean forceFullUpdate) {
+        if (DBG) log("updateScreen(" + forceFullUpdate + ")...");
 
         // Don't update anything if we're not in the foreground (there's
         // no point updating our UI widgets since we're not visible!)
@@ -2344,9 +2520,35 @@ public class InCallScreen extends Activity
             return;
         }
 
-        // Update the state of the in-call menu items.
-        if (mInCallMenu != null) {
-            // TODO: do this only if the menu is visible!
+        // Any pending coalesced update is covered by this one.
+        mHandler.removeMessages(REQUEST_UPDATE_SCREEN);
+        if (forceFullUpdate) {
+            mCallCardSnapshot.invalidate();
+            if (mInCallControlState != null) mInCallControlState.invalidate();
+            mLastBackgroundResId = 0;
+            mLastMenuButtonHintVisibility = -1;
+        }
+
+        final long startTime = System.nanoTime();
+        updateScreenInternal();
+        final long elapsed = System.nanoTime() - startTime;
+        mLastScreenUpdateTime = SystemClock.uptimeMillis();
+        sScreenUpdates++;
+        sScreenUpdateTotalNanos += elapsed;
+        if (elapsed > sScreenUpdateMaxNanos) {
+            sScreenUpdateMaxNanos = elapsed;
+        }
+    }
+
+    private void updateScreenInternal() {
+
+        // Update the state of the in-call menu items, but only if the
+        // menu is actually up.  (onCreatePanelView() updates the items
+        // every time the menu is opened.)
+        if (mInCallMenu != null && !mInCallMenuShowing) {
+            sMenuUpdatesSkipped++;
+        } else if (mInCallMenu != null) {
+            sMenuUpdates++;
             if (DBG) log("- updateScreen: updating menu items...");
             // TODO shall updateItems use CallManager instead of Phone ?
             boolean okToShowMenu = mInCallMenu.updateItems(mCM);
@@ -2405,7 +2607,12 @@ public class InCallScreen extends Activity
         }
 
         if (DBG) log("- updateScreen: updating the in-call UI...");
-        mCallCard.updateState(mCM);
+        if (mCallCardSnapshot.update(mCM, app)) {
+            mCallCard.updateState(mCM);
+        } else {
+            if (VDBG) log("- updateScreen: call state unchanged, not updating CallCard");
+            sCallCardUpdatesSkipped++;
+        }
         updateDialpadVisibility();
         updateInCallTouchUi();
         updateProviderOverlay();
@@ -2586,7 +2793,7 @@ public class InCallScreen extends Activity
             return InCallInitStatus.NO_PHONE_NUMBER_SUPPLIED;
         }
 
-        boolean isEmergencyNumber = PhoneNumberUtils.isEmergencyNumber(number);
+        boolean isEmergencyNumber = EmergencyNumberMatcher.isEmergencyNumber(number);
         boolean isEmergencyIntent = Intent.ACTION_CALL_EMERGENCY.equals(intent.getAction());
 
         if (isEmergencyNumber && !isEmergencyIntent) {
@@ -3358,7 +3565,10 @@ public class InCallScreen extends Activity
         }
 
         int hintVisibility = (hintVisible) ? View.VISIBLE : View.GONE;
-        mCallCard.getMenuButtonHint().setVisibility(hintVisibility);
+        if (hintVisibility != mLastMenuButtonHintVisibility) {
+            mCallCard.getMenuButtonHint().setVisibility(hintVisibility);
+            mLastMenuButtonHintVisibility = hintVisibility;
+        }
 
         // TODO: Consider hiding the hint(s) whenever the menu is onscreen!
         // (Currently, the menu is rendered on top of the hint, but the
@@ -3733,6 +3943,8 @@ public class InCallScreen extends Activity
     private void setInCallScreenMode(InCallScreenMode newMode) {
         if (DBG) log("setInCallScreenMode: " + newMode);
         mInCallScreenMode = newMode;
+        // The CallCard's visibility and contents depend on the mode too.
+        mCallCardSnapshot.invalidate();
         switch (mInCallScreenMode) {
             case MANAGE_CONFERENCE:
                 if (!PhoneUtils.isConferenceCall(mCM.getActiveFgCall())) {
@@ -3970,11 +4182,9 @@ public class InCallScreen extends Activity
         //     SlidingDrawer-based dialpad, because the SlidingDrawer itself
         //     is opaque.)
         if (!mDialer.usingSlidingDrawer()) {
-            if (mDialerView != null) {
-                mDialerView.setKeysBackgroundResource(
-                        isBluetoothAudioConnected() ? R.drawable.btn_dial_blue
-                        : R.drawable.btn_dial_green);
-            }
+            mDialer.setKeysBackgroundResource(
+                    isBluetoothAudioConnected() ? R.drawable.btn_dial_blue
+                    : R.drawable.btn_dial_green);
 
             if (isDialerOpened()) {
                 mInCallPanel.setVisibility(View.GONE);
@@ -4239,7 +4449,9 @@ public class InCallScreen extends Activity
             mInCallMenu.initMenu();
         }
 
+        sMenuUpdates++;
         boolean okToShowMenu = mInCallMenu.updateItems(mCM);
+        mInCallMenuShowing = okToShowMenu;
         return okToShowMenu ? mInCallMenu.getView() : null;
     }
 
@@ -4278,6 +4490,9 @@ public class InCallScreen extends Activity
         if (featureId == Window.FEATURE_OPTIONS_PANEL) {
             // TODO: May need to return to the original wake state here
             // if onCreatePanelView ends up changing the wake state.
+
+            // Stop keeping the menu items up to date.
+            mInCallMenuShowing = false;
         }
 
         super.onPanelClosed(featureId, menu);
@@ -4927,7 +5142,8 @@ public class InCallScreen extends Activity
     }
 
     public void updateMenuItems() {
-        if (mInCallMenu != null) {
+        if (mInCallMenu != null && mInCallMenuShowing) {
+            sMenuUpdates++;
             boolean okToShowMenu =  mInCallMenu.updateItems(mCM);
             if (!okToShowMenu) {
                 dismissMenu(true);
@@ -5012,7 +5228,15 @@ public class InCallScreen extends Activity
                     break;
             }
         }
-        mMainFrame.setBackgroundResource(backgroundResId);
+        // Re-setting the same 9-patch background is not free (the
+        // drawable gets reloaded and the frame invalidated), so skip it
+        // if nothing changed.
+        if (backgroundResId != mLastBackgroundResId) {
+            mMainFrame.setBackgroundResource(backgroundResId);
+            mLastBackgroundResId = backgroundResId;
+        } else {
+            sBackgroundUpdatesSkipped++;
+        }
     }
 
     public void resetInCallScreenMode() {
@@ -5102,6 +5326,22 @@ public class InCallScreen extends Activity
         // See bug 2089513.
     }
 
+    /**
+     * Dumps the updateScreen() counters, for "dumpsys phone".
+     */
+    static void dumpUpdateStats(PrintWriter pw) {
+        pw.println("InCallScreen updates: requested=" + sScreenUpdateRequests
+                + " coalesced=" + sScreenUpdatesCoalesced
+                + " performed=" + sScreenUpdates
+                + " avgUs=" + (sScreenUpdates > 0
+                        ? sScreenUpdateTotalNanos / sScreenUpdates / 1000 : 0)
+                + " maxUs=" + (sScreenUpdateMaxNanos / 1000)
+                + " callCardSkipped=" + sCallCardUpdatesSkipped
+                + " backgroundSkipped=" + sBackgroundUpdatesSkipped);
+        pw.println("InCallMenu updates: performed=" + sMenuUpdates
+                + " skippedWhileHidden=" + sMenuUpdatesSkipped);
+        InCallMenuView.dumpStats(pw);
+    }
 
     private void log(String msg) {
         Log.d(LOG_TAG, msg);
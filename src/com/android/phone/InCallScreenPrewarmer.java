@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Optional "pre-warm" of the in-call UI resources.
+ *
+ * Activities can't be created ahead of time, and a view hierarchy is
+ * tied to the Context it was inflated with, so what we can do ahead of
+ * time is the expensive resource work: decoding the in-call backgrounds
+ * and call card pictures.  We hold on to the decoded drawables, which
+ * keeps their bitmaps in the Resources drawable cache, so when the
+ * InCallScreen comes up for an incoming call it doesn't have to decode
+ * them on the critical path.
+ *
+ * Decoding happens one drawable per main thread idle pass (so it never
+ * delays anything else the main thread is doing), after boot and again
+ * after each call ends, and stops once the configured memory budget
+ * (R.integer.in_call_prewarm_budget_kb) is used up.  The whole feature is
+ * controlled by R.bool.prewarm_in_call_screen.
+ */
+public class InCallScreenPrewarmer implements MessageQueue.IdleHandler {
+    private static final String LOG_TAG = "InCallScreenPrewarmer";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    // Resources used when the InCallScreen first comes up, in order of
+    // importance.  (The backgrounds are set on every update; the pictures
+    // are shown while the caller-id query is still running.)
+    private static final int[] PREWARM_DRAWABLES = {
+        R.drawable.bg_in_call_gradient_unidentified,
+        R.drawable.bg_in_call_gradient_connected,
+        R.drawable.bg_in_call_gradient_bluetooth,
+        R.drawable.bg_in_call_gradient_on_hold,
+        R.drawable.bg_in_call_gradient_ended,
+        R.drawable.picture_unknown,
+        R.drawable.picture_dialing,
+        R.drawable.picture_conference,
+    };
+
+    private final Context mContext;
+    private final boolean mEnabled;
+    private final long mBudgetBytes;
+
+    // Drawables we're holding on to, and their estimated size.
+    private final ArrayList<Drawable> mDrawables = new ArrayList<Drawable>();
+    private long mBytesUsed;
+
+    // Index into PREWARM_DRAWABLES of the next drawable to decode, or -1
+    // if we're not currently pre-warming.
+    private int mNextIndex = -1;
+
+    public InCallScreenPrewarmer(Context context) {
+        mContext = context;
+        mEnabled = context.getResources().getBoolean(R.bool.prewarm_in_call_screen);
+        mBudgetBytes = context.getResources().getInteger(R.integer.in_call_prewarm_budget_kb)
+                * 1024L;
+    }
+
+    /**
+     * Starts decoding the in-call resources during main thread idle
+     * time.  Must be called from the main thread.  Does nothing if the
+     * feature is disabled, or if a pre-warm pass is already running or
+     * complete.
+     */
+    void prewarm() {
+        if (!mEnabled || mNextIndex >= 0 || !mDrawables.isEmpty()) {
+            return;
+        }
+        if (DBG) log("prewarm: starting, budget = " + mBudgetBytes);
+        mNextIndex = 0;
+        Looper.myQueue().addIdleHandler(this);
+    }
+
+    /**
+     * Drops all the pre-warmed resources (for example when the system
+     * is low on memory.)  The next prewarm() call starts over.
+     */
+    void release() {
+        if (DBG) log("release: dropping " + mDrawables.size() + " drawables");
+        if (mNextIndex >= 0) {
+            Looper.myQueue().removeIdleHandler(this);
+            mNextIndex = -1;
+        }
+        mDrawables.clear();
+        mBytesUsed = 0;
+    }
+
+    /**
+     * @return true if the in-call resources have been pre-warmed.
+     */
+    boolean isWarm() {
+        return !mDrawables.isEmpty() && mNextIndex < 0;
+    }
+
+    /**
+     * Implementation of MessageQueue.IdleHandler: decodes one drawable
+     * per idle pass, and returns false (to be removed) when done.
+     */
+    public boolean queueIdle() {
+        if (mNextIndex < 0) {
+            return false;
+        }
+
+        Drawable d = mContext.getResources().getDrawable(PREWARM_DRAWABLES[mNextIndex]);
+        long size = estimateSize(d);
+        if (mBytesUsed + size > mBudgetBytes) {
+            if (DBG) log("queueIdle: over budget, stopping at index " + mNextIndex);
+            mNextIndex = -1;
+            return false;
+        }
+        mDrawables.add(d);
+        mBytesUsed += size;
+
+        mNextIndex++;
+        if (mNextIndex >= PREWARM_DRAWABLES.length) {
+            if (DBG) log("queueIdle: done, " + mBytesUsed + " bytes");
+            mNextIndex = -1;
+            return false;
+        }
+        return true;
+    }
+
+    private static long estimateSize(Drawable d) {
+        if (d instanceof BitmapDrawable && ((BitmapDrawable) d).getBitmap() != null) {
+            Bitmap b = ((BitmapDrawable) d).getBitmap();
+            return (long) b.getRowBytes() * b.getHeight();
+        }
+        // NinePatchDrawables don't expose their bitmap; assume 32 bits
+        // per pixel at the intrinsic size.
+        return 4L * Math.max(d.getIntrinsicWidth(), 1) * Math.max(d.getIntrinsicHeight(), 1);
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
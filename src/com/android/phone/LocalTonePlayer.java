@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.media.ToneGenerator;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Shared local (key feedback) tone player for the in-call DTMF dialpad
+ * and the EmergencyDialer, for one stream type and volume.
+ *
+ * Creating a ToneGenerator allocates an AudioTrack in AudioFlinger, which
+ * is far too slow to do on a key press, and each dialpad used to create
+ * and release its own generator around its lifecycle.  Instead, a dialpad
+ * calls acquire() when it becomes visible and release() when it goes
+ * away; the generator stays warm as long as any dialpad holds it, and for
+ * a short grace period after the last release, so that quickly reopening
+ * a dialpad (or an activity restart) doesn't pay for a new AudioTrack.
+ *
+ * The dialpads don't all use the same stream (the EmergencyDialer plays
+ * its tones on STREAM_MUSIC, the in-call dialpad on STREAM_DTMF), so the
+ * PhoneApp keeps one player per stream type and volume; see
+ * PhoneApp.getLocalTonePlayer().  Switching between dialpads then never
+ * recreates a generator, or moves one under another dialpad's feet.
+ *
+ * The player also measures the latency from the input event (see
+ * noteKeyDown()) to the start of the tone, as reported by dump().
+ *
+ * The players are owned by the PhoneApp, and must only be used from the
+ * main thread (where all the dialpad input events arrive), so no locking
+ * is needed on the tone path.
+ */
+public class LocalTonePlayer {
+    private static final String LOG_TAG = "LocalTonePlayer";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    // How long to keep the generator after the last dialpad releases it.
+    private static final long RELEASE_DELAY_MS = 3000;
+
+    private final Handler mHandler = new Handler();
+    private final int mStreamType;
+    private final int mVolume;
+    private ToneGenerator mToneGenerator;
+    private int mRefCount;
+
+    // Event time (SystemClock.uptimeMillis() base) of the key press the
+    // next tone is for, or 0 if unknown.
+    private long mKeyDownTime;
+
+    // Statistics, reported by dump().
+    private int mGeneratorsCreated;
+    private int mTonesStarted;
+    private int mTonesDropped;
+    private int mLatencySamples;
+    private long mLatencyTotal;
+    private long mLatencyMax;
+    private long mStartNanosTotal;
+    private long mStartNanosMax;
+
+    private final Runnable mReleaseRunnable = new Runnable() {
+        public void run() {
+            releaseGenerator();
+        }
+    };
+
+    /**
+     * @param streamType the AudioManager.STREAM_* to play the tones on
+     * @param volume the tone volume, relative to the stream volume (0-100)
+     */
+    LocalTonePlayer(int streamType, int volume) {
+        mStreamType = streamType;
+        mVolume = volume;
+    }
+
+    /**
+     * Makes sure the tone generator is available, until the matching
+     * release() call.  If the generator can't be created, tones are
+     * silently dropped; the local tone is not as important as the DTMF
+     * tone itself.
+     */
+    void acquire() {
+        mRefCount++;
+        mHandler.removeCallbacks(mReleaseRunnable);
+        if (mToneGenerator == null) {
+            try {
+                mToneGenerator = new ToneGenerator(mStreamType, mVolume);
+                mGeneratorsCreated++;
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Exception caught while creating local tone generator: " + e);
+                mToneGenerator = null;
+            }
+        }
+        if (DBG) log("acquire: " + mRefCount + " users");
+    }
+
+    /**
+     * Releases a reference obtained with acquire().  The generator itself
+     * is released a few seconds after the last reference goes away.
+     */
+    void release() {
+        if (mRefCount == 0) {
+            Log.w(LOG_TAG, "release() without acquire()");
+            return;
+        }
+        mRefCount--;
+        if (DBG) log("release: " + mRefCount + " users");
+        if (mRefCount == 0) {
+            mHandler.postDelayed(mReleaseRunnable, RELEASE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Records the event time of the key press (or touch down) that the
+     * next startTone() call is for.
+     */
+    void noteKeyDown(long eventTime) {
+        mKeyDownTime = eventTime;
+    }
+
+    /**
+     * Starts playing a tone (stopping any tone already playing.)
+     *
+     * @param tone a tone code from {@link ToneGenerator}
+     * @param durationMs the tone duration, or -1 to play until stopTone()
+     * @return false if there was no tone generator
+     */
+    boolean startTone(int tone, int durationMs) {
+        long keyDownTime = mKeyDownTime;
+        mKeyDownTime = 0;
+        if (mToneGenerator == null) {
+            if (DBG) log("startTone: no tone generator, tone: " + tone);
+            mTonesDropped++;
+            return false;
+        }
+
+        long start = System.nanoTime();
+        mToneGenerator.startTone(tone, durationMs);
+        long startNanos = System.nanoTime() - start;
+        mTonesStarted++;
+        mStartNanosTotal += startNanos;
+        if (startNanos > mStartNanosMax) mStartNanosMax = startNanos;
+
+        if (keyDownTime > 0) {
+            long latency = SystemClock.uptimeMillis() - keyDownTime;
+            mLatencySamples++;
+            mLatencyTotal += latency;
+            if (latency > mLatencyMax) mLatencyMax = latency;
+        }
+        return true;
+    }
+
+    void stopTone() {
+        if (mToneGenerator != null) {
+            mToneGenerator.stopTone();
+        }
+    }
+
+    private void releaseGenerator() {
+        if (mToneGenerator != null) {
+            if (DBG) log("releasing tone generator");
+            mToneGenerator.release();
+            mToneGenerator = null;
+        }
+    }
+
+    /**
+     * Prints the key-down to tone-start latency, the cost of the
+     * startTone() calls themselves, and how many generators were created.
+     */
+    void dump(PrintWriter pw) {
+        pw.println("Local tone player (stream " + mStreamType + ", volume " + mVolume + "):");
+        pw.println("  users=" + mRefCount + " warm=" + (mToneGenerator != null)
+                + " generatorsCreated=" + mGeneratorsCreated);
+        pw.println("  tones=" + mTonesStarted + " dropped=" + mTonesDropped
+                + " startUs avg=" + (mTonesStarted > 0 ? mStartNanosTotal / mTonesStarted / 1000 : 0)
+                + " max=" + (mStartNanosMax / 1000));
+        pw.println("  keyDownToToneMs samples=" + mLatencySamples
+                + " avg=" + (mLatencySamples > 0 ? mLatencyTotal / mLatencySamples : 0)
+                + " max=" + mLatencyMax);
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Measures how long each message takes on the phone process's main
+ * looper, and how long messages wait before they get dispatched, so we
+ * can tell which handler (the CallNotifier, the ITelephony main thread
+ * handler, the PhoneApp, InCallScreen or BluetoothHandsfree handlers...)
+ * holds up an incoming call.
+ *
+ * Handling time comes from the main looper's message logging
+ * (Looper.setMessageLogging()), which reports the start and end of every
+ * dispatch, and is kept per handler class and msg.what (or per callback
+ * class, for posted Runnables.)
+ *
+ * Dispatch delay can't be seen from the message logging, so it's
+ * sampled instead: whenever the looper starts dispatching and no probe
+ * is outstanding, a probe message is posted at the back of the queue;
+ * how late it runs is the delay a message posted at that moment would
+ * have seen.  That delay is blamed on the longest message dispatched in
+ * the meantime.  There are no probes while the looper is idle, so an
+ * idle phone never wakes up for this.
+ *
+ * A message still running after the "slow" threshold gets a stack
+ * snapshot of the main thread, taken from a separate thread; the last
+ * few of those are kept for dumpsys.  That thread also only wakes up
+ * while the main looper is dispatching.
+ *
+ * All statistics are guarded by the watchdog object; dump() may be
+ * called from any thread.
+ */
+public class MainLooperWatchdog {
+    private static final String LOG_TAG = "MainLooperWatchdog";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    private static final String DISPATCH_PREFIX = ">>>>> Dispatching to ";
+    private static final String FINISH_PREFIX = "<<<<< Finished to ";
+
+    // Histogram bucket upper bounds, in ms; the last bucket is open ended.
+    private static final long[] BUCKET_LIMITS = { 1, 4, 16, 64, 256, 1024 };
+    private static final int NUM_BUCKETS = BUCKET_LIMITS.length + 1;
+
+    // Slow message samples kept, and frames kept per sample.
+    private static final int MAX_SAMPLES = 8;
+    private static final int MAX_FRAMES = 12;
+
+    /** Statistics for one handler class and msg.what. */
+    private static class Stats {
+        final String key;
+        int count;
+        long totalMillis;
+        long maxMillis;
+        final int[] histogram = new int[NUM_BUCKETS];
+        int delaysCaused;
+        long delayCausedMillis;
+
+        Stats(String key) {
+            this.key = key;
+        }
+    }
+
+    /** A slow message, and what the main thread was doing at the time. */
+    private static class Sample {
+        String key;
+        long startTime;
+        long runningMillis;
+        StackTraceElement[] stack;
+    }
+
+    private final Looper mLooper;
+    private final long mSlowMillis;
+    private final HashMap<String, Stats> mStats = new HashMap<String, Stats>();
+    private final int[] mDelayHistogram = new int[NUM_BUCKETS];
+    private int mDelaySamples;
+    private long mMaxDelayMillis;
+    private final Sample[] mSamples = new Sample[MAX_SAMPLES];
+    private int mNextSample;
+
+    // The message being dispatched; set and cleared by the main thread.
+    private Stats mCurrent;
+    private long mCurrentStart;
+    private int mCurrentSerial;
+    private int mSampledSerial;
+
+    // Longest message dispatched since the outstanding probe was posted.
+    private boolean mProbePending;
+    private long mProbePostTime;
+    private Stats mProbeBlamed;
+    private long mProbeBlamedMillis;
+
+    // Slow message checks, on their own thread.
+    private final Handler mCheckHandler;
+    private boolean mCheckPending;
+
+    private final Handler mProbeHandler;
+    private final Runnable mProbe = new Runnable() {
+        public void run() {
+            onProbe();
+        }
+    };
+
+    private final Runnable mSlowCheck = new Runnable() {
+        public void run() {
+            checkSlowMessage();
+        }
+    };
+
+    private final Printer mPrinter = new Printer() {
+        public void println(String x) {
+            if (x.startsWith(DISPATCH_PREFIX)) {
+                onDispatchStart(x);
+            } else if (x.startsWith(FINISH_PREFIX)) {
+                onDispatchEnd();
+            }
+        }
+    };
+
+    /**
+     * Creates the watchdog and installs it on the main looper.  Must be
+     * called on the main thread.
+     */
+    public MainLooperWatchdog(Context context) {
+        mLooper = Looper.getMainLooper();
+        mSlowMillis = context.getResources().getInteger(R.integer.main_looper_slow_message_ms);
+        mProbeHandler = new Handler(mLooper);
+
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mCheckHandler = new Handler(thread.getLooper());
+
+        mLooper.setMessageLogging(mPrinter);
+    }
+
+    private synchronized void onDispatchStart(String x) {
+        long now = SystemClock.uptimeMillis();
+        // Don't count our own probes, or let them re-arm the probe.
+        if (x.indexOf(MainLooperWatchdog.class.getName()) >= 0) {
+            mCurrent = null;
+            return;
+        }
+
+        String key = getKey(x);
+        Stats stats = mStats.get(key);
+        if (stats == null) {
+            stats = new Stats(key);
+            mStats.put(key, stats);
+        }
+        mCurrent = stats;
+        mCurrentStart = now;
+        mCurrentSerial++;
+
+        if (!mProbePending) {
+            mProbePending = true;
+            mProbePostTime = now;
+            mProbeBlamed = null;
+            mProbeBlamedMillis = 0;
+            mProbeHandler.post(mProbe);
+        }
+        if (!mCheckPending && mSlowMillis > 0) {
+            mCheckPending = true;
+            mCheckHandler.postDelayed(mSlowCheck, mSlowMillis);
+        }
+    }
+
+    private synchronized void onDispatchEnd() {
+        Stats stats = mCurrent;
+        if (stats == null) {
+            return;
+        }
+        mCurrent = null;
+        long millis = SystemClock.uptimeMillis() - mCurrentStart;
+        stats.count++;
+        stats.totalMillis += millis;
+        if (millis > stats.maxMillis) stats.maxMillis = millis;
+        stats.histogram[bucket(millis)]++;
+
+        if (mProbePending && millis >= mProbeBlamedMillis) {
+            mProbeBlamed = stats;
+            mProbeBlamedMillis = millis;
+        }
+    }
+
+    private synchronized void onProbe() {
+        mProbePending = false;
+        long delay = SystemClock.uptimeMillis() - mProbePostTime;
+        mDelaySamples++;
+        mDelayHistogram[bucket(delay)]++;
+        if (delay > mMaxDelayMillis) mMaxDelayMillis = delay;
+        if (mProbeBlamed != null) {
+            mProbeBlamed.delaysCaused++;
+            mProbeBlamed.delayCausedMillis += delay;
+            mProbeBlamed = null;
+        }
+    }
+
+    /**
+     * Runs on the check thread every mSlowMillis while the main looper
+     * is dispatching, and takes a stack snapshot of a message that has
+     * been running longer than that (once per message.)
+     */
+    private void checkSlowMessage() {
+        String key;
+        long start;
+        int serial;
+        synchronized (this) {
+            mCheckPending = false;
+            if (mCurrent == null) {
+                // Idle (or between messages); the next dispatch re-arms us.
+                return;
+            }
+            mCheckPending = true;
+            mCheckHandler.postDelayed(mSlowCheck, mSlowMillis);
+            if (mCurrentSerial == mSampledSerial
+                    || SystemClock.uptimeMillis() - mCurrentStart < mSlowMillis) {
+                return;
+            }
+            mSampledSerial = mCurrentSerial;
+            key = mCurrent.key;
+            start = mCurrentStart;
+            serial = mCurrentSerial;
+        }
+
+        // Outside the lock, so the main thread isn't held up by it.
+        StackTraceElement[] stack = mLooper.getThread().getStackTrace();
+
+        synchronized (this) {
+            if (serial != mCurrentSerial) {
+                // Finished in the meantime; the stack is of something else.
+                return;
+            }
+            if (stack.length > MAX_FRAMES) {
+                StackTraceElement[] top = new StackTraceElement[MAX_FRAMES];
+                System.arraycopy(stack, 0, top, 0, MAX_FRAMES);
+                stack = top;
+            }
+            Sample sample = new Sample();
+            sample.key = key;
+            sample.startTime = start;
+            sample.runningMillis = SystemClock.uptimeMillis() - start;
+            sample.stack = stack;
+            mSamples[mNextSample] = sample;
+            mNextSample = (mNextSample + 1) % MAX_SAMPLES;
+        }
+        if (DBG) log("slow message: " + key + ", started " + start);
+    }
+
+    /**
+     * Turns the looper's log line, e.g.
+     * ">>>>> Dispatching to Handler (com.android.phone.CallNotifier) {43ad1d58} null: 2"
+     * into "CallNotifier what=2", or for a posted Runnable, into the
+     * handler and Runnable class names.
+     */
+    private static String getKey(String x) {
+        int open = x.indexOf('(');
+        int close = x.indexOf(')', open + 1);
+        int brace = x.indexOf("} ", close + 1);
+        int colon = x.lastIndexOf(": ");
+        if (open < 0 || close < 0 || brace < 0 || colon < brace) {
+            return x.substring(DISPATCH_PREFIX.length());
+        }
+        String handler = simpleName(x.substring(open + 1, close));
+        String callback = x.substring(brace + 2, colon);
+        if (callback.equals("null")) {
+            return handler + " what=" + x.substring(colon + 2);
+        }
+        int at = callback.indexOf('@');
+        return handler + " " + simpleName(at >= 0 ? callback.substring(0, at) : callback);
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static int bucket(long millis) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (millis < BUCKET_LIMITS[i]) return i;
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    private static String histogramToString(int[] histogram) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(i < BUCKET_LIMITS.length ? "<" + BUCKET_LIMITS[i] : ">=" + BUCKET_LIMITS[i - 1])
+                    .append(':').append(histogram[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints the dispatch delay histogram, the per-message statistics
+     * (the messages that caused the most delay first), and the slow
+     * message samples.
+     */
+    synchronized void dump(PrintWriter pw) {
+        pw.println("Main looper watchdog (slow = " + mSlowMillis + "ms):");
+        pw.println("  dispatch delay: samples=" + mDelaySamples + " max=" + mMaxDelayMillis
+                + "ms [" + histogramToString(mDelayHistogram) + "]");
+
+        ArrayList<Stats> all = new ArrayList<Stats>(mStats.values());
+        Collections.sort(all, new Comparator<Stats>() {
+            public int compare(Stats a, Stats b) {
+                if (a.delayCausedMillis != b.delayCausedMillis) {
+                    return (a.delayCausedMillis > b.delayCausedMillis) ? -1 : 1;
+                }
+                return (a.totalMillis > b.totalMillis) ? -1 : (a.totalMillis < b.totalMillis) ? 1 : 0;
+            }
+        });
+        for (Stats s : all) {
+            pw.println("  " + s.key + ": count=" + s.count
+                    + " avg=" + (s.count > 0 ? s.totalMillis / s.count : 0)
+                    + "ms max=" + s.maxMillis + "ms"
+                    + " delayed=" + s.delaysCaused + "/" + s.delayCausedMillis + "ms"
+                    + " [" + histogramToString(s.histogram) + "]");
+        }
+
+        long now = SystemClock.uptimeMillis();
+        for (int i = 0; i < MAX_SAMPLES; i++) {
+            Sample sample = mSamples[(mNextSample + i) % MAX_SAMPLES];
+            if (sample == null) continue;
+            pw.println("  slow: " + sample.key + ", running " + sample.runningMillis
+                    + "ms, " + ((now - sample.startTime) / 1000) + "s ago");
+            for (StackTraceElement frame : sample.stack) {
+                pw.println("      at " + frame);
+            }
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
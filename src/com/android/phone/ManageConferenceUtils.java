@@ -53,7 +53,35 @@ public class ManageConferenceUtils
     private Button mButtonManageConferenceDone;
     private ViewGroup[] mConferenceCallList;
     private int mNumCallersInConference;
+
+    // Per-row child views, looked up once when the panel is inflated.
+    private ImageButton[] mEndButtons;
+    private ImageButton[] mSeparateButtons;
+    private TextView[] mNameTextViews;
+    private TextView[] mNumberTextViews;
+    private TextView[] mNumberTypeTextViews;
+
+    // What each row is currently bound to, so that a panel update only
+    // rebinds the rows that actually changed.  A null connection means
+    // the row is hidden.
+    private Connection[] mRowConnections;
+    private boolean[] mRowCanSeparate;
+
+    // Statistics, for the debug log.
+    private int mRowsRebound;
+    private int mRowsSkipped;
     private Chronometer mConferenceTime;
+    private long mConferenceTimeBase;
+
+    // The conference time is updated by the shared CallTimeTicker rather
+    // than by the Chronometer's own per-second callback.
+    private final CallTimeTicker.TickListener mConferenceTimeTicker =
+            new CallTimeTicker.TickListener() {
+                public void onTick() {
+                    // setBase() re-renders the text for the current time.
+                    mConferenceTime.setBase(mConferenceTimeBase);
+                }
+            };
 
     // See CallTracker.MAX_CONNECTIONS_PER_CALL
     private static final int MAX_CALLERS_IN_CONFERENCE = 5;
@@ -86,12 +114,48 @@ public class ManageConferenceUtils
 
             // Create list of conference call widgets
             mConferenceCallList = new ViewGroup[MAX_CALLERS_IN_CONFERENCE];
+            mEndButtons = new ImageButton[MAX_CALLERS_IN_CONFERENCE];
+            mSeparateButtons = new ImageButton[MAX_CALLERS_IN_CONFERENCE];
+            mNameTextViews = new TextView[MAX_CALLERS_IN_CONFERENCE];
+            mNumberTextViews = new TextView[MAX_CALLERS_IN_CONFERENCE];
+            mNumberTypeTextViews = new TextView[MAX_CALLERS_IN_CONFERENCE];
+            mRowConnections = new Connection[MAX_CALLERS_IN_CONFERENCE];
+            mRowCanSeparate = new boolean[MAX_CALLERS_IN_CONFERENCE];
 
             final int[] viewGroupIdList = { R.id.caller0, R.id.caller1, R.id.caller2,
                                             R.id.caller3, R.id.caller4 };
             for (int i = 0; i < MAX_CALLERS_IN_CONFERENCE; i++) {
-                mConferenceCallList[i] =
-                        (ViewGroup) mInCallScreen.findViewById(viewGroupIdList[i]);
+                final ViewGroup row = (ViewGroup) mInCallScreen.findViewById(viewGroupIdList[i]);
+                mConferenceCallList[i] = row;
+                mEndButtons[i] = (ImageButton) row.findViewById(R.id.conferenceCallerDisconnect);
+                mSeparateButtons[i] =
+                        (ImageButton) row.findViewById(R.id.conferenceCallerSeparate);
+                mNameTextViews[i] = (TextView) row.findViewById(R.id.conferenceCallerName);
+                mNumberTextViews[i] = (TextView) row.findViewById(R.id.conferenceCallerNumber);
+                mNumberTypeTextViews[i] =
+                        (TextView) row.findViewById(R.id.conferenceCallerNumberType);
+
+                // Hook up this row's buttons.  These act on whatever
+                // connection the row is bound to at the time of the click.
+                final int rowIndex = i;
+                mEndButtons[i].setOnClickListener(new View.OnClickListener() {
+                        public void onClick(View v) {
+                            Connection connection = mRowConnections[rowIndex];
+                            if (connection != null) {
+                                endConferenceConnection(rowIndex, connection);
+                            }
+                            PhoneApp.getInstance().pokeUserActivity();
+                        }
+                    });
+                mSeparateButtons[i].setOnClickListener(new View.OnClickListener() {
+                        public void onClick(View v) {
+                            Connection connection = mRowConnections[rowIndex];
+                            if (connection != null) {
+                                separateConferenceConnection(rowIndex, connection);
+                            }
+                            PhoneApp.getInstance().pokeUserActivity();
+                        }
+                    });
             }
 
             mButtonManageConferenceDone = (Button) mInCallScreen.findViewById(R.id.manage_done);
@@ -105,6 +169,12 @@ public class ManageConferenceUtils
     public void setPanelVisible(boolean visible) {
         if (mManageConferencePanel != null) {
             mManageConferencePanel.setVisibility(visible ? View.VISIBLE : View.GONE);
+            if (!visible) {
+                // Rebind every row the next time the panel comes up.
+                for (int i = 0; i < MAX_CALLERS_IN_CONFERENCE; i++) {
+                    mRowConnections[i] = null;
+                }
+            }
         }
     }
 
@@ -113,8 +183,9 @@ public class ManageConferenceUtils
      */
     public void startConferenceTime(long base) {
         if (mConferenceTime != null) {
+            mConferenceTimeBase = base;
             mConferenceTime.setBase(base);
-            mConferenceTime.start();
+            PhoneApp.getInstance().getCallTimeTicker().addListener(mConferenceTimeTicker);
         }
     }
 
@@ -123,7 +194,7 @@ public class ManageConferenceUtils
      */
     public void stopConferenceTime() {
         if (mConferenceTime != null) {
-            mConferenceTime.stop();
+            PhoneApp.getInstance().getCallTimeTicker().removeListener(mConferenceTimeTicker);
         }
     }
 
@@ -135,6 +206,9 @@ public class ManageConferenceUtils
      * Updates the "Manage conference" UI based on the specified List of
      * connections.
      *
+     * Only the rows whose connection (or "Separate" button state) changed
+     * since the last update are rebound; the others are left alone.
+     *
      * @param connections the List of connections belonging to
      *        the current foreground call; size must be greater than 1
      *        (or it wouldn't be a conference call in the first place.)
@@ -151,15 +225,29 @@ public class ManageConferenceUtils
         boolean canSeparate = !(hasActiveCall && hasHoldingCall);
 
         for (int i = 0; i < MAX_CALLERS_IN_CONFERENCE; i++) {
+            Connection connection = null;
             if (i < mNumCallersInConference) {
+                connection = (Connection) connections.get(i);
+            }
+            if (mConferenceCallList[i].getVisibility() == (connection != null ? View.VISIBLE
+                                                                             : View.GONE)
+                    && connection == mRowConnections[i]
+                    && (connection == null || canSeparate == mRowCanSeparate[i])) {
+                // Nothing changed for this row.
+                mRowsSkipped++;
+                continue;
+            }
+            mRowsRebound++;
+            if (connection != null) {
                 // Fill in the row in the UI for this caller.
-                Connection connection = (Connection) connections.get(i);
                 updateManageConferenceRow(i, connection, canSeparate);
             } else {
                 // Blank out this row in the UI
                 updateManageConferenceRow(i, null, false);
             }
         }
+        if (DBG) log("updateManageConferencePanel: rows rebound " + mRowsRebound
+                     + ", skipped " + mRowsSkipped);
     }
 
     /**
@@ -178,58 +266,36 @@ public class ManageConferenceUtils
                                           boolean canSeparate) {
         if (DBG) log("updateManageConferenceRow(" + i + ")...  connection = " + connection);
 
+        final Connection previousConnection = mRowConnections[i];
+        mRowConnections[i] = connection;
+        mRowCanSeparate[i] = canSeparate;
+
         if (connection != null) {
             // Activate this row of the Manage conference panel:
             mConferenceCallList[i].setVisibility(View.VISIBLE);
 
-            // get the relevant children views
-            ImageButton endButton = (ImageButton) mConferenceCallList[i].findViewById(
-                    R.id.conferenceCallerDisconnect);
-            ImageButton separateButton = (ImageButton) mConferenceCallList[i].findViewById(
-                    R.id.conferenceCallerSeparate);
-            TextView nameTextView = (TextView) mConferenceCallList[i].findViewById(
-                    R.id.conferenceCallerName);
-            TextView numberTextView = (TextView) mConferenceCallList[i].findViewById(
-                    R.id.conferenceCallerNumber);
-            TextView numberTypeTextView = (TextView) mConferenceCallList[i].findViewById(
-                    R.id.conferenceCallerNumberType);
-
-            if (DBG) log("- button: " + endButton + ", nameTextView: " + nameTextView);
-
-            // Hook up this row's buttons.
-            View.OnClickListener endThisConnection = new View.OnClickListener() {
-                    public void onClick(View v) {
-                        endConferenceConnection(i, connection);
-                        PhoneApp.getInstance().pokeUserActivity();
-                    }
-                };
-            endButton.setOnClickListener(endThisConnection);
-            //
-            if (canSeparate) {
-                View.OnClickListener separateThisConnection = new View.OnClickListener() {
-                        public void onClick(View v) {
-                            separateConferenceConnection(i, connection);
-                            PhoneApp.getInstance().pokeUserActivity();
-                        }
-                    };
-                separateButton.setOnClickListener(separateThisConnection);
-                separateButton.setVisibility(View.VISIBLE);
-            } else {
-                separateButton.setVisibility(View.INVISIBLE);
-            }
+            // The row's buttons were hooked up in initManageConferencePanel().
+            mSeparateButtons[i].setVisibility(canSeparate ? View.VISIBLE : View.INVISIBLE);
 
-            // Name/number for this caller.
+            // Name/number for this caller.  The CallerInfo lives in the
+            // Connection's userData, so it's shared with the CallCard and
+            // only queried once per connection; we only need to ask again
+            // when this row is bound to a different connection.  (If a
+            // query is still running, its result is delivered to
+            // onQueryComplete(), keyed by the connection.)
             // TODO: need to deal with private or blocked caller id?
-            PhoneUtils.CallerInfoToken info =
-                    PhoneUtils.startGetCallerInfo(mInCallScreen,
-                                                  connection,
-                                                  this,
-                                                  mConferenceCallList[i]);
-            if (DBG) log("  - got info from startGetCallerInfo(): " + info);
-
-            // display the CallerInfo.
-            displayCallerInfoForConferenceRow(info.currentInfo, nameTextView,
-                                              numberTypeTextView, numberTextView);
+            if (connection != previousConnection) {
+                PhoneUtils.CallerInfoToken info =
+                        PhoneUtils.startGetCallerInfo(mInCallScreen,
+                                                      connection,
+                                                      this,
+                                                      connection);
+                if (DBG) log("  - got info from startGetCallerInfo(): " + info);
+
+                // display the CallerInfo.
+                displayCallerInfoForConferenceRow(info.currentInfo, mNameTextViews[i],
+                                                  mNumberTypeTextViews[i], mNumberTextViews[i]);
+            }
         } else {
             // Disable this row of the Manage conference panel:
             mConferenceCallList[i].setVisibility(View.GONE);
@@ -319,20 +385,22 @@ public class ManageConferenceUtils
      *
      * This method listens for results from the caller-id info queries we
      * fire off in updateManageConferenceRow(), and updates the
-     * corresponding conference row.
+     * conference row (if any) that's currently showing that connection.
      */
     public void onQueryComplete(int token, Object cookie, CallerInfo ci) {
         if (DBG) log("callerinfo query complete, updating UI." + ci);
 
-        // get the viewgroup (conference call list item) and make it visible
-        ViewGroup vg = (ViewGroup) cookie;
-        vg.setVisibility(View.VISIBLE);
-
-        // update the list item with this information.
-        displayCallerInfoForConferenceRow(ci,
-                (TextView) vg.findViewById(R.id.conferenceCallerName),
-                (TextView) vg.findViewById(R.id.conferenceCallerNumberType),
-                (TextView) vg.findViewById(R.id.conferenceCallerNumber));
+        // The cookie is the Connection; it may have moved to a different
+        // row (or left the conference) since the query was started.
+        for (int i = 0; i < MAX_CALLERS_IN_CONFERENCE; i++) {
+            if (mRowConnections[i] == cookie) {
+                // update the list item with this information.
+                displayCallerInfoForConferenceRow(ci, mNameTextViews[i],
+                        mNumberTypeTextViews[i], mNumberTextViews[i]);
+                return;
+            }
+        }
+        if (DBG) log("- connection no longer in the panel, ignoring.");
     }
 
 
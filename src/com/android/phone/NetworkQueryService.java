@@ -26,15 +26,26 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.CellLocation;
+import android.telephony.gsm.GsmCellLocation;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneFactory;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 /**
  * Service code used to assist in querying the network for service
  * availability.   
+ *
+ * A network scan takes a long time, so the results of the last
+ * successful one are kept for R.integer.network_query_cache_ttl_ms, as
+ * long as the phone stays in the same location area.  A new query is
+ * answered right away with those (status QUERY_CACHED), while a fresh
+ * scan runs; its results follow as usual.
  */
 public class NetworkQueryService extends Service {
     // debug data
@@ -51,12 +62,30 @@ public class NetworkQueryService extends Service {
     // error statuses that will be retured in the callback.
     public static final int QUERY_OK = 0;
     public static final int QUERY_EXCEPTION = 1;
+    // results from an earlier scan; a new scan is running, and its
+    // results will follow.
+    public static final int QUERY_CACHED = 2;
     
     /** state of the query service */
     private int mState;
     
     /** local handle to the phone object */
     private Phone mPhone;
+
+    /** results of the last successful scan, where (see getLocationArea()) and when */
+    private ArrayList<NetworkInfo> mCachedResults;
+    private String mCachedLocationArea;
+    private long mCachedTime;
+    private long mCacheTtl;
+
+    /** scan statistics, for dump() */
+    private long mScanStartTime;
+    private int mScans;
+    private int mScanFailures;
+    private long mTotalScanMillis;
+    private long mMaxScanMillis;
+    private long mLastScanMillis;
+    private int mCacheDeliveries;
     
     /**
      * Class for clients to access.  Because we know this service always
@@ -113,6 +142,18 @@ public class NetworkQueryService extends Service {
                 synchronized (mCallbacks) {
                     mCallbacks.register(cb);
                     if (DBG) log("registering callback " + cb.getClass().toString());
+
+                    // hand out the last results right away, if they're
+                    // still good.
+                    ArrayList<NetworkInfo> cached = getCachedResults();
+                    if (cached != null) {
+                        if (DBG) log("delivering cached results");
+                        mCacheDeliveries++;
+                        try {
+                            cb.onQueryComplete(cached, QUERY_CACHED);
+                        } catch (RemoteException e) {
+                        }
+                    }
                     
                     switch (mState) {
                         case QUERY_READY:
@@ -121,6 +162,7 @@ public class NetworkQueryService extends Service {
                             mPhone.getAvailableNetworks(
                                     mHandler.obtainMessage(EVENT_NETWORK_SCAN_COMPLETED));
                             mState = QUERY_IS_RUNNING;
+                            mScanStartTime = SystemClock.elapsedRealtime();
                             if (DBG) log("starting new query");
                             break;
                             
@@ -158,6 +200,7 @@ public class NetworkQueryService extends Service {
     public void onCreate() {
         mState = QUERY_READY;
         mPhone = PhoneFactory.getDefaultPhone();
+        mCacheTtl = getResources().getInteger(R.integer.network_query_cache_ttl_ms);
     }
     
     /**
@@ -198,6 +241,19 @@ public class NetworkQueryService extends Service {
             // simple status integer will suffice.
             int exception = (ar.exception == null) ? QUERY_OK : QUERY_EXCEPTION;
             if (DBG) log("AsyncResult has exception " + exception);
+
+            long scanMillis = SystemClock.elapsedRealtime() - mScanStartTime;
+            mScans++;
+            mTotalScanMillis += scanMillis;
+            mLastScanMillis = scanMillis;
+            if (scanMillis > mMaxScanMillis) mMaxScanMillis = scanMillis;
+            if (exception == QUERY_OK && ar.result != null) {
+                mCachedResults = (ArrayList<NetworkInfo>) ar.result;
+                mCachedLocationArea = getLocationArea();
+                mCachedTime = SystemClock.elapsedRealtime();
+            } else {
+                mScanFailures++;
+            }
             
             // Make the calls to all the registered callbacks.
             for (int i = (mCallbacks.beginBroadcast() - 1); i >= 0; i--) {
@@ -214,6 +270,55 @@ public class NetworkQueryService extends Service {
         }
     }
     
+    /**
+     * @return the results of the last successful scan, if they're newer
+     *     than the cache TTL and from the current location area; or null.
+     */
+    private ArrayList<NetworkInfo> getCachedResults() {
+        if (mCachedResults == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - mCachedTime >= mCacheTtl
+                || !getLocationArea().equals(mCachedLocationArea)) {
+            if (DBG) log("cached results are stale");
+            mCachedResults = null;
+            return null;
+        }
+        return mCachedResults;
+    }
+
+    /**
+     * @return a string identifying where we are: the registered network
+     *     and location area code.  The networks found by a scan depend on
+     *     where it was done.
+     */
+    private String getLocationArea() {
+        String area = String.valueOf(mPhone.getServiceState().getOperatorNumeric());
+        CellLocation location = mPhone.getCellLocation();
+        if (location instanceof GsmCellLocation) {
+            area += "/" + ((GsmCellLocation) location).getLac();
+        }
+        return area;
+    }
+
+    /**
+     * Prints the scan statistics and the state of the result cache.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        synchronized (mCallbacks) {
+            pw.println("NetworkQueryService: state="
+                    + (mState == QUERY_IS_RUNNING ? "running" : "ready"));
+            pw.println("  scans=" + mScans + " failures=" + mScanFailures
+                    + " avg=" + (mScans > 0 ? mTotalScanMillis / mScans : 0)
+                    + "ms max=" + mMaxScanMillis + "ms last=" + mLastScanMillis + "ms");
+            pw.println("  cache: " + (mCachedResults == null ? "empty"
+                    : mCachedResults.size() + " networks in " + mCachedLocationArea + ", "
+                    + (SystemClock.elapsedRealtime() - mCachedTime) / 1000 + "s old")
+                    + ", delivered " + mCacheDeliveries + " times (ttl " + mCacheTtl + "ms)");
+        }
+    }
+
     private static void log(String msg) {
         Log.d(LOG_TAG, msg);
     }    
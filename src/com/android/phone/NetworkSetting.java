@@ -35,6 +35,7 @@ import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Window;
 
 import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.Phone;
@@ -78,6 +79,10 @@ public class NetworkSetting extends PreferenceActivity
     //preference objects
     private PreferenceGroup mNetworkList;
     private Preference mSearchButton;
+
+    // True while cached results are shown and the scan that will replace
+    // them is still running; the list is read-only until it completes.
+    private boolean mShowingCachedResults;
     private Preference mAutoSelect;
 
     private final Handler mHandler = new Handler() {
@@ -178,6 +183,11 @@ public class NetworkSetting extends PreferenceActivity
         } else if (preference == mAutoSelect) {
             selectNetworkAutomatic();
             handled = true;
+        } else if (mShowingCachedResults) {
+            // Selecting a network would have to wait for (or fail behind)
+            // the scan in progress.
+            if (DBG) log("scan in progress, ignoring selection");
+            handled = true;
         } else {
             Preference selectedCarrier = preference;
 
@@ -215,6 +225,8 @@ public class NetworkSetting extends PreferenceActivity
 
     @Override
     protected void onCreate(Bundle icicle) {
+        // for the "still searching" indicator shown over cached results.
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
         super.onCreate(icicle);
 
         addPreferencesFromResource(R.xml.carrier_select);
@@ -255,6 +267,15 @@ public class NetworkSetting extends PreferenceActivity
      */
     @Override
     protected void onDestroy() {
+        if (mShowingCachedResults && mNetworkQueryService != null) {
+            // Nobody is left to see the results of the scan (the progress
+            // dialog, which would have stopped it when cancelled, is gone.)
+            try {
+                mNetworkQueryService.stopNetworkQuery(mCallback);
+            } catch (RemoteException e) {
+            }
+        }
+
         // unbind the service.
         unbindService(mNetworkQueryServiceConnection);
 
@@ -307,7 +328,12 @@ public class NetworkSetting extends PreferenceActivity
     }
 
     private void displayEmptyNetworkList(boolean flag) {
-        mNetworkList.setTitle(flag ? R.string.empty_networks_list : R.string.label_available);
+        if (flag) {
+            mNetworkList.setTitle(R.string.empty_networks_list);
+        } else {
+            mNetworkList.setTitle(mShowingCachedResults
+                    ? R.string.label_available_searching : R.string.label_available);
+        }
     }
 
     private void displayNetworkSeletionInProgress(String networkStr) {
@@ -388,10 +414,16 @@ public class NetworkSetting extends PreferenceActivity
             dismissDialog(DIALOG_NETWORK_LIST_LOAD);
         }
 
-        getPreferenceScreen().setEnabled(true);
+        // QUERY_CACHED results are shown right away, but read-only: the
+        // screen stays disabled, with a non-modal progress indicator,
+        // until the results of the scan in progress replace them.
+        mShowingCachedResults = (status == NetworkQueryService.QUERY_CACHED);
+        setProgressBarIndeterminateVisibility(mShowingCachedResults);
+        getPreferenceScreen().setEnabled(!mShowingCachedResults);
         clearList();
 
-        if (status != NetworkQueryService.QUERY_OK) {
+        if (status != NetworkQueryService.QUERY_OK
+                && status != NetworkQueryService.QUERY_CACHED) {
             if (DBG) log("error while querying available networks");
             displayNetworkQueryFailed(status);
             displayEmptyNetworkList(true);
@@ -27,7 +27,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.media.AudioManager;
 import android.net.Uri;
 import android.os.SystemClock;
 import android.os.SystemProperties;
@@ -124,8 +123,15 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
     static void init(Context context) {
         sMe = new NotificationMgr(context);
 
-        // update the notifications that need to be touched at startup.
-        sMe.updateNotificationsAtStartup();
+        // Update (or cancel) the in-call notification.  The missed call
+        // notification is restored later, off the startup critical path;
+        // see updateMissedCallsAtStartup().
+        if (DBG) sMe.log("- updating in-call notification at startup...");
+        sMe.updateInCallNotification();
+
+        // Depend on android.app.StatusBarManager to be set to
+        // disable(DISABLE_NONE) upon startup.  This will be the
+        // case even if the phone app crashes.
     }
 
     static NotificationMgr getDefault() {
@@ -210,11 +216,12 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
     }
 
     /**
-     * Makes sure phone-related notifications are up to date on a
-     * freshly-booted device.
+     * Makes sure the missed call notification is up to date on a
+     * freshly-booted device (or after the phone process restarts.)
+     * Called by the PhoneApp once startup is otherwise complete.
      */
-    private void updateNotificationsAtStartup() {
-        if (DBG) log("updateNotificationsAtStartup()...");
+    void updateMissedCallsAtStartup() {
+        if (DBG) log("updateMissedCallsAtStartup()...");
 
         // instantiate query handler
         mQueryHandler = new QueryHandler(mContext.getContentResolver());
@@ -228,14 +235,6 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
         if (DBG) log("- start call log query...");
         mQueryHandler.startQuery(CALL_LOG_TOKEN, null, Calls.CONTENT_URI,  CALL_LOG_PROJECTION,
                 where.toString(), null, Calls.DEFAULT_SORT_ORDER);
-
-        // Update (or cancel) the in-call notification
-        if (DBG) log("- updating in-call notification at startup...");
-        updateInCallNotification();
-
-        // Depend on android.app.StatusBarManager to be set to
-        // disable(DISABLE_NONE) upon startup.  This will be the
-        // case even if the phone app crashes.
     }
 
     /** The projection to use when querying the phones table */
@@ -450,9 +449,8 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
      * the actual current state of the speaker.
      */
     void updateSpeakerNotification() {
-        AudioManager audioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
-
-        if ((mPhone.getState() == Phone.State.OFFHOOK) && audioManager.isSpeakerphoneOn()) {
+        if ((mPhone.getState() == Phone.State.OFFHOOK)
+                && PhoneApp.getInstance().getAudioRouteController().isSpeakerphoneOn()) {
             if (DBG) log("updateSpeakerNotification: speaker ON");
             notifySpeakerphone();
         } else {
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.telephony.Phone;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+
+/**
+ * Pipelined path for ITelephony.sendOemRilRequestRaw() (see
+ * PhoneInterfaceManager.)
+ *
+ * OEM hook requests used to be shuttled through the main thread one at a
+ * time, and their responses came back through it too.  Sending a request
+ * to the RIL doesn't need the main thread (the RIL queues it on its own
+ * sender thread), so each request is now sent straight from the calling
+ * binder thread, tagged with an ID, and its response comes back on a
+ * dedicated thread here, which hands it to the waiting caller.  Any
+ * number of requests can be outstanding at once.
+ *
+ * Each request has its own timeout, which is the only way a request is
+ * cancelled; the RIL response for a request that timed out is dropped.
+ * dump() reports the RIL round-trip latency of the completed requests.
+ *
+ * All methods are thread-safe.
+ */
+public class OemRilRequestTracker {
+    private static final String LOG_TAG = "OemRilRequestTracker";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    private static final int EVENT_RESPONSE = 1;
+
+    // Latency histogram bucket upper bounds, in ms; the last bucket is
+    // open ended.
+    private static final long[] BUCKET_LIMITS = { 10, 50, 100, 500, 1000, 5000 };
+
+    /** One request, as returned by send(). */
+    static class Request {
+        /** The request's ID, matching it with the RIL response */
+        final int id;
+        final long sendTime;
+        private AsyncResult result;
+        private boolean done;
+
+        Request(int id) {
+            this.id = id;
+            this.sendTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    private final Phone mPhone;
+    private final Handler mHandler;
+
+    // Outstanding requests, by ID.  Also guards the statistics below.
+    private final HashMap<Integer, Request> mOutstanding = new HashMap<Integer, Request>();
+    private int mNextId;
+
+    private int mSent;
+    private int mCompleted;
+    private int mTimedOut;
+    private int mLateResponses;
+    private int mMaxOutstanding;
+    private long mTotalLatency;
+    private long mMaxLatency;
+    private final int[] mLatencyHistogram = new int[BUCKET_LIMITS.length + 1];
+
+    public OemRilRequestTracker(Phone phone) {
+        mPhone = phone;
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == EVENT_RESPONSE) {
+                    onResponse(msg.arg1, (AsyncResult) msg.obj);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends an OEM hook request to the RIL.
+     * @return the request, for await()
+     */
+    Request send(byte[] data) {
+        Request request;
+        synchronized (mOutstanding) {
+            request = new Request(++mNextId);
+            mOutstanding.put(request.id, request);
+            mSent++;
+            if (mOutstanding.size() > mMaxOutstanding) {
+                mMaxOutstanding = mOutstanding.size();
+            }
+        }
+        if (DBG) log("send: #" + request.id + ", " + data.length + " bytes");
+        mPhone.invokeOemRilRequestRaw(data,
+                mHandler.obtainMessage(EVENT_RESPONSE, request.id, 0));
+        return request;
+    }
+
+    /**
+     * Waits for the response to a request sent by send().
+     * @return the RIL's result, or null if the request timed out (in
+     *     which case it's cancelled.)
+     */
+    AsyncResult await(Request request, long timeoutMillis) {
+        final int id = request.id;
+        long deadline = request.sendTime + timeoutMillis;
+        synchronized (request) {
+            while (!request.done) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    request.wait(remaining);
+                } catch (InterruptedException e) {
+                    // Go back and wait until the request is complete
+                }
+            }
+            if (request.done) {
+                return request.result;
+            }
+        }
+
+        boolean timedOut;
+        synchronized (mOutstanding) {
+            timedOut = (mOutstanding.remove(id) != null);
+            if (timedOut) {
+                mTimedOut++;
+            }
+        }
+        if (!timedOut) {
+            // The response came in just now; onResponse() is about to
+            // hand it over.
+            synchronized (request) {
+                while (!request.done) {
+                    try {
+                        request.wait();
+                    } catch (InterruptedException e) {
+                        // Keep waiting; it's on its way.
+                    }
+                }
+                return request.result;
+            }
+        }
+        Log.w(LOG_TAG, "await: request #" + id + " timed out after " + timeoutMillis + "ms");
+        return null;
+    }
+
+    private void onResponse(int id, AsyncResult ar) {
+        long latency;
+        Request request;
+        synchronized (mOutstanding) {
+            request = mOutstanding.remove(id);
+            if (request == null) {
+                // Timed out already.
+                mLateResponses++;
+                return;
+            }
+            latency = SystemClock.uptimeMillis() - request.sendTime;
+            mCompleted++;
+            mTotalLatency += latency;
+            if (latency > mMaxLatency) mMaxLatency = latency;
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS.length && latency >= BUCKET_LIMITS[bucket]) {
+                bucket++;
+            }
+            mLatencyHistogram[bucket]++;
+        }
+        if (DBG) log("onResponse: #" + id + " after " + latency + "ms");
+        finish(request, ar);
+    }
+
+    private static void finish(Request request, AsyncResult result) {
+        synchronized (request) {
+            request.result = result;
+            request.done = true;
+            request.notifyAll();
+        }
+    }
+
+    /**
+     * Prints the request counts and the RIL round-trip latency histogram.
+     */
+    void dump(PrintWriter pw) {
+        synchronized (mOutstanding) {
+            pw.println("OEM RIL requests: sent=" + mSent + " completed=" + mCompleted
+                    + " timedOut=" + mTimedOut
+                    + " lateResponses=" + mLateResponses
+                    + " outstanding=" + mOutstanding.size() + " (max " + mMaxOutstanding + ")");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < mLatencyHistogram.length; i++) {
+                sb.append(i < BUCKET_LIMITS.length ? " <" + BUCKET_LIMITS[i]
+                        : " >=" + BUCKET_LIMITS[i - 1]).append(':').append(mLatencyHistogram[i]);
+            }
+            pw.println("  latency: avg=" + (mCompleted > 0 ? mTotalLatency / mCompleted : 0)
+                    + "ms max=" + mMaxLatency + "ms [" + sb.toString().trim() + "]");
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
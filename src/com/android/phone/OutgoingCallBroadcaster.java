@@ -131,7 +131,7 @@ public class OutgoingCallBroadcaster extends Activity {
                     && (app.phone.isOtaSpNumber(number))) {
                 if (DBG) Log.v(TAG, "Call is active, a 2nd OTA call cancelled -- returning.");
                 return;
-            } else if (PhoneNumberUtils.isEmergencyNumber(number)) {
+            } else if (EmergencyNumberMatcher.isEmergencyNumber(number)) {
                 Log.w(TAG, "Cannot modify outgoing call to emergency number " + number + ".");
                 return;
             }
@@ -224,7 +224,7 @@ public class OutgoingCallBroadcaster extends Activity {
             }
         }
         final boolean emergencyNumber =
-                (number != null) && PhoneNumberUtils.isEmergencyNumber(number);
+                (number != null) && EmergencyNumberMatcher.isEmergencyNumber(number);
 
         boolean callNow;
 
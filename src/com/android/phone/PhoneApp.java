@@ -25,7 +25,6 @@ import android.app.StatusBarManager;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothHeadset;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -33,15 +32,14 @@ import android.content.res.Configuration;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.AsyncResult;
-import android.os.Binder;
 import android.os.Handler;
-import android.os.IBinder;
-import android.os.IPowerManager;
+import android.os.HandlerThread;
 import android.os.LocalPowerManager;
+import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
 import android.os.PowerManager;
-import android.os.RemoteException;
-import android.os.ServiceManager;
+import android.os.Process;
 import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.preference.PreferenceManager;
@@ -49,6 +47,7 @@ import android.provider.Settings.System;
 import android.telephony.ServiceState;
 import android.util.Config;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyEvent;
 import android.widget.Toast;
 
@@ -65,6 +64,9 @@ import com.android.internal.telephony.sip.SipPhoneFactory;
 import com.android.phone.OtaUtils.CdmaOtaScreenState;
 import com.android.server.sip.SipService;
 
+import java.io.PrintWriter;
+import java.util.HashMap;
+
 /**
  * Top-level Application class for the Phone app.
  */
@@ -143,6 +145,21 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
 
     private static PhoneApp sMe;
 
+    // Startup phases; see onCreate() and ensureStartupComplete().
+    private boolean mDeferredStartupDone;
+    private long mStartupTelephonyMillis;
+    private long mStartupCallHandlingMillis;
+    private long mStartupCompleteTime;
+    private volatile long mStartupBackgroundMillis = -1;
+
+    private final MessageQueue.IdleHandler mDeferredStartupIdleHandler =
+            new MessageQueue.IdleHandler() {
+        public boolean queueIdle() {
+            ensureStartupComplete();
+            return false;
+        }
+    };
+
     // A few important fields we expose to the rest of the package
     // directly (rather than thru set/get methods) for efficiency.
     Phone phone;
@@ -150,6 +167,13 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
     Ringer ringer;
     BluetoothHandsfree mBtHandsfree;
     PhoneInterfaceManager phoneMgr;
+    AudioRouteController audioRouteController;
+    InCallScreenPrewarmer mInCallScreenPrewarmer;
+    ContactPhotoCache mContactPhotoCache;
+    CallTimeTicker mCallTimeTicker;
+    // Local tone players, by (stream type, volume); see getLocalTonePlayer().
+    private final SparseArray<LocalTonePlayer> mLocalTonePlayers =
+            new SparseArray<LocalTonePlayer>();
     CallManager mCM;
     int mBluetoothHeadsetState = BluetoothHeadset.STATE_ERROR;
     int mBluetoothHeadsetAudioState = BluetoothHeadset.STATE_ERROR;
@@ -188,13 +212,10 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
     // Last phone state seen by updatePhoneState()
     Phone.State mLastPhoneState = Phone.State.IDLE;
 
-    private WakeState mWakeState = WakeState.SLEEP;
     private ScreenTimeoutDuration mScreenTimeoutDuration = ScreenTimeoutDuration.DEFAULT;
     private boolean mIgnoreTouchUserActivity = false;
-    private IBinder mPokeLockToken = new Binder();
-    private IPowerManager mPowerManagerService;
-    private PowerManager.WakeLock mWakeLock;
-    private PowerManager.WakeLock mPartialWakeLock;
+    private PowerStateController mPowerStateController;
+    private MainLooperWatchdog mMainLooperWatchdog;
     private PowerManager.WakeLock mProximityWakeLock;
     private KeyguardManager mKeyguardManager;
     private StatusBarManager mStatusBarManager;
@@ -205,6 +226,21 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
     // Broadcast receiver for various intent broadcasts (see onCreate())
     private final BroadcastReceiver mReceiver = new PhoneAppBroadcastReceiver();
 
+    // Thread mReceiver runs on; see PhoneAppBroadcastReceiver.
+    private HandlerThread mBroadcastThread;
+
+    // Broadcasts accepted by mReceiver and waiting for the main thread,
+    // at most one per action.  Also guards the statistics below.
+    private final HashMap<String, Intent> mPendingBroadcasts = new HashMap<String, Intent>();
+
+    // The state carried by the last broadcast of each action that was
+    // passed on to the main thread.  Only used on mBroadcastThread.
+    private final HashMap<String, String> mLastBroadcastKeys = new HashMap<String, String>();
+
+    private int mBroadcastsReceived;
+    private int mBroadcastsUnchanged;
+    private int mBroadcastsCoalesced;
+
     // Broadcast receiver purely for ACTION_MEDIA_BUTTON broadcasts
     private final BroadcastReceiver mMediaButtonReceiver = new MediaButtonBroadcastReceiver();
 
@@ -417,13 +453,35 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
         sMe = this;
     }
 
+    /**
+     * Startup happens in phases:
+     *
+     * (1) "telephony" and (2) "call handling", right here in onCreate():
+     *     the minimum needed to receive, answer and place a call, and to
+     *     serve the ITelephony interface.
+     * (3) "deferred", on the main thread as soon as it first goes idle
+     *     (see ensureStartupComplete()): things nobody needs until a call
+     *     is actually in progress or a settings screen comes up.
+     * (4) "background", on a separate thread: provider warm-ups.
+     *
+     * The time spent in each phase is logged once startup is complete.
+     */
     @Override
     public void onCreate() {
         if (VDBG) Log.v(LOG_TAG, "onCreate()...");
 
-        ContentResolver resolver = getContentResolver();
+        final long startTime = SystemClock.uptimeMillis();
+        long telephonyTime = startTime;
 
         if (phone == null) {
+            // Start watching the main looper first, so that startup
+            // messages are counted too.
+            mMainLooperWatchdog = new MainLooperWatchdog(this);
+
+            //
+            // Phase 1: telephony.
+            //
+
             // Initialize the telephony framework
             PhoneFactory.makeDefaultPhones(this);
 
@@ -432,7 +490,14 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
 
             mCM = CallManager.getInstance();
             mCM.registerPhone(phone);
+            telephonyTime = SystemClock.uptimeMillis();
 
+            //
+            // Phase 2: call handling.
+            //
+
+            // All in-call AudioManager route changes go through this.
+            audioRouteController = new AudioRouteController(this);
 
             mPhoneType = phone.getPhoneType();
             NotificationMgr.init(this);
@@ -449,9 +514,10 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
                 cdmaPhoneCallState.CdmaPhoneCallStateInit();
             }
 
+            // (The CallNotifier needs the BluetoothHandsfree right away,
+            // but the headset service is started in the deferred phase.)
             if (BluetoothAdapter.getDefaultAdapter() != null) {
                 mBtHandsfree = new BluetoothHandsfree(this, mCM);
-                startService(new Intent(this, BluetoothHeadsetService.class));
             } else {
                 // Device is not bluetooth capable
                 mBtHandsfree = null;
@@ -461,12 +527,9 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
 
             // before registering for phone state changes
             PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-            mWakeLock = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK
-                    | PowerManager.ACQUIRE_CAUSES_WAKEUP,
-                    LOG_TAG);
-            // lock used to keep the processor awake, when we don't care for the display.
-            mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK
-                    | PowerManager.ON_AFTER_RELEASE, LOG_TAG);
+            // The FULL and PARTIAL wake locks, the poke lock and the
+            // other PowerManager requests all go through this.
+            mPowerStateController = new PowerStateController(this);
             // Wake lock used to control proximity sensor behavior.
             if ((pm.getSupportedWakeLockFlags()
                  & PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK) != 0x0) {
@@ -475,19 +538,9 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
             }
             if (DBG) Log.d(LOG_TAG, "onCreate: mProximityWakeLock: " + mProximityWakeLock);
 
-            // create mAccelerometerListener only if we are using the proximity sensor
-            if (proximitySensorModeEnabled()) {
-                mAccelerometerListener = new AccelerometerListener(this, this);
-            }
-
             mKeyguardManager = (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
             mStatusBarManager = (StatusBarManager) getSystemService(Context.STATUS_BAR_SERVICE);
 
-            // get a handle to the service so that we can use it later when we
-            // want to set the poke lock.
-            mPowerManagerService = IPowerManager.Stub.asInterface(
-                    ServiceManager.getService("power"));
-
             notifier = new CallNotifier(this, phone, ringer, mBtHandsfree, new CallLogAsync());
 
             // register for ICC status
@@ -523,7 +576,10 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
                 intentFilter.addAction(TtyIntent.TTY_PREFERRED_MODE_CHANGE_ACTION);
             }
             intentFilter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
-            registerReceiver(mReceiver, intentFilter);
+            mBroadcastThread = new HandlerThread("PhoneAppBroadcasts");
+            mBroadcastThread.start();
+            registerReceiver(mReceiver, intentFilter, null,
+                    new Handler(mBroadcastThread.getLooper()));
 
             // Use a separate receiver for ACTION_MEDIA_BUTTON broadcasts,
             // since we need to manually adjust its priority (to make sure
@@ -538,11 +594,6 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
             //
             registerReceiver(mMediaButtonReceiver, mediaButtonIntentFilter);
 
-            //set the default values for the preferences in the phone.
-            PreferenceManager.setDefaultValues(this, R.xml.network_setting, false);
-
-            PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting, false);
-
             // Make sure the audio mode (along with some
             // audio-mode-related state of our own) is initialized
             // correctly, given the current state of the phone.
@@ -558,9 +609,6 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
             cdmaOtaInCallScreenUiState = new OtaUtils.CdmaOtaInCallScreenUiState();
         }
 
-        // XXX pre-load the SimProvider so that it's ready
-        resolver.getType(Uri.parse("content://icc/adn"));
-
         // start with the default value to set the mute state.
         mShouldRestoreMuteOnInCallResume = false;
 
@@ -577,6 +625,64 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
                     android.provider.Settings.Secure.PREFERRED_TTY_MODE,
                     Phone.TTY_MODE_OFF);
         }
+
+        mInCallScreenPrewarmer = new InCallScreenPrewarmer(this);
+        mContactPhotoCache = new ContactPhotoCache(this);
+        mCallTimeTicker = new CallTimeTicker(this);
+
+        mStartupTelephonyMillis = telephonyTime - startTime;
+        mStartupCallHandlingMillis = SystemClock.uptimeMillis() - telephonyTime;
+        mStartupCompleteTime = SystemClock.uptimeMillis();
+
+        // Phases 3 and 4.
+        Looper.myQueue().addIdleHandler(mDeferredStartupIdleHandler);
+        new Thread("PhoneAppStartup") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = SystemClock.uptimeMillis();
+
+                // XXX pre-load the SimProvider so that it's ready
+                getContentResolver().getType(Uri.parse("content://icc/adn"));
+
+                mStartupBackgroundMillis = SystemClock.uptimeMillis() - start;
+            }
+        }.start();
+   }
+
+    /**
+     * Runs the deferred phase of startup (see onCreate()), if it hasn't
+     * run yet.  This normally happens the first time the main thread
+     * goes idle after onCreate(), but anything that depends on the
+     * deferred initialization (a call going off-hook, the settings
+     * screens) calls this first, in case the main thread has been busy
+     * ever since.  Must be called from the main thread.
+     */
+    /* package */ void ensureStartupComplete() {
+        if (mDeferredStartupDone) {
+            return;
+        }
+        mDeferredStartupDone = true;
+        Looper.myQueue().removeIdleHandler(mDeferredStartupIdleHandler);
+        final long start = SystemClock.uptimeMillis();
+
+        if (mBtHandsfree != null) {
+            startService(new Intent(this, BluetoothHeadsetService.class));
+        }
+
+        // create mAccelerometerListener only if we are using the proximity sensor
+        if (proximitySensorModeEnabled()) {
+            mAccelerometerListener = new AccelerometerListener(this, this);
+        }
+
+        // Restore the missed call notification.
+        NotificationMgr.getDefault().updateMissedCallsAtStartup();
+
+        //set the default values for the preferences in the phone.
+        PreferenceManager.setDefaultValues(this, R.xml.network_setting, false);
+
+        PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting, false);
+
         // Read HAC settings and configure audio hardware
         if (getResources().getBoolean(R.bool.hac_enabled)) {
             int hac = android.provider.Settings.System.getInt(phone.getContext().getContentResolver(),
@@ -587,7 +693,27 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
                                       CallFeaturesSetting.HAC_VAL_ON :
                                       CallFeaturesSetting.HAC_VAL_OFF);
         }
-   }
+
+        // Decode the in-call UI resources in idle time, so the first
+        // incoming call doesn't have to (if enabled for this device.)
+        mInCallScreenPrewarmer.prewarm();
+
+        long now = SystemClock.uptimeMillis();
+        Log.i(LOG_TAG, "startup: telephony " + mStartupTelephonyMillis
+                + "ms, call handling " + mStartupCallHandlingMillis
+                + "ms, deferred " + (now - start)
+                + "ms (started " + (start - mStartupCompleteTime) + "ms after onCreate)"
+                + ", background " + (mStartupBackgroundMillis >= 0
+                        ? mStartupBackgroundMillis + "ms" : "still running"));
+    }
+
+    @Override
+    public void onLowMemory() {
+        if (mInCallScreenPrewarmer != null && mLastPhoneState == Phone.State.IDLE) {
+            mInCallScreenPrewarmer.release();
+        }
+        super.onLowMemory();
+    }
 
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
@@ -624,6 +750,10 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
         return mBtHandsfree;
     }
 
+    AudioRouteController getAudioRouteController() {
+        return audioRouteController;
+    }
+
     static Intent createCallLogIntent() {
         Intent  intent = new Intent(Intent.ACTION_VIEW, null);
         intent.setType("vnd.android.cursor.dir/calls");
@@ -909,12 +1039,8 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
             pokeLockSetting |= LocalPowerManager.POKE_LOCK_IGNORE_TOUCH_AND_CHEEK_EVENTS;
         }
 
-        // Send the request
-        try {
-            mPowerManagerService.setPokeLock(pokeLockSetting, mPokeLockToken, LOG_TAG);
-        } catch (RemoteException e) {
-            Log.w(LOG_TAG, "mPowerManagerService.setPokeLock() failed: " + e);
-        }
+        // Send the request (if it's a change.)
+        mPowerStateController.setPokeLock(pokeLockSetting);
     }
 
     /**
@@ -928,39 +1054,7 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
      */
     /* package */ void requestWakeState(WakeState ws) {
         if (VDBG) Log.d(LOG_TAG, "requestWakeState(" + ws + ")...");
-        synchronized (this) {
-            if (mWakeState != ws) {
-                switch (ws) {
-                    case PARTIAL:
-                        // acquire the processor wake lock, and release the FULL
-                        // lock if it is being held.
-                        mPartialWakeLock.acquire();
-                        if (mWakeLock.isHeld()) {
-                            mWakeLock.release();
-                        }
-                        break;
-                    case FULL:
-                        // acquire the full wake lock, and release the PARTIAL
-                        // lock if it is being held.
-                        mWakeLock.acquire();
-                        if (mPartialWakeLock.isHeld()) {
-                            mPartialWakeLock.release();
-                        }
-                        break;
-                    case SLEEP:
-                    default:
-                        // release both the PARTIAL and FULL locks.
-                        if (mWakeLock.isHeld()) {
-                            mWakeLock.release();
-                        }
-                        if (mPartialWakeLock.isHeld()) {
-                            mPartialWakeLock.release();
-                        }
-                        break;
-                }
-                mWakeState = ws;
-            }
-        }
+        mPowerStateController.requestWakeState(ws);
     }
 
     /**
@@ -968,16 +1062,7 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
      * manager to wake up the screen for the user activity timeout duration.
      */
     /* package */ void wakeUpScreen() {
-        synchronized (this) {
-            if (mWakeState == WakeState.SLEEP) {
-                if (DBG) Log.d(LOG_TAG, "pulse screen lock");
-                try {
-                    mPowerManagerService.userActivityWithForce(SystemClock.uptimeMillis(), false, true);
-                } catch (RemoteException ex) {
-                    // Ignore -- the system process is dead.
-                }
-            }
-        }
+        mPowerStateController.wakeUpScreen();
     }
 
     /**
@@ -1085,11 +1170,7 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
      */
     /* package */ void preventScreenOn(boolean prevent) {
         if (VDBG) Log.d(LOG_TAG, "- preventScreenOn(" + prevent + ")...");
-        try {
-            mPowerManagerService.preventScreenOn(prevent);
-        } catch (RemoteException e) {
-            Log.w(LOG_TAG, "mPowerManagerService.preventScreenOn() failed: " + e);
-        }
+        mPowerStateController.preventScreenOn(prevent);
     }
 
     /**
@@ -1120,11 +1201,7 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
      */
     /* package */ void pokeUserActivity() {
         if (VDBG) Log.d(LOG_TAG, "pokeUserActivity()...");
-        try {
-            mPowerManagerService.userActivity(SystemClock.uptimeMillis(), false);
-        } catch (RemoteException e) {
-            Log.w(LOG_TAG, "mPowerManagerService.userActivity() failed: " + e);
-        }
+        mPowerStateController.pokeUserActivity();
     }
 
     /**
@@ -1226,6 +1303,11 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
      */
     /* package */ void updatePhoneState(Phone.State state) {
         if (state != mLastPhoneState) {
+            if (state != Phone.State.IDLE) {
+                // The accelerometer listener and the bluetooth headset
+                // service are set up in the deferred startup phase.
+                ensureStartupComplete();
+            }
             mLastPhoneState = state;
             updateProximitySensorMode(state);
             if (mAccelerometerListener != null) {
@@ -1243,9 +1325,61 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
             if (mInCallScreen != null) {
                 mInCallScreen.updateKeyguardPolicy(state == Phone.State.OFFHOOK);
             }
+            // Get ready for the next call, in case the pre-warmed
+            // resources were dropped.
+            if (state == Phone.State.IDLE && mInCallScreenPrewarmer != null) {
+                mInCallScreenPrewarmer.prewarm();
+            }
+            // The call's photos aren't needed any more.
+            if (state == Phone.State.IDLE && mContactPhotoCache != null) {
+                mContactPhotoCache.clear();
+            }
+        }
+    }
+
+    /**
+     * @return true if the in-call UI resources have been pre-warmed.
+     */
+    /* package */ boolean isInCallScreenPrewarmed() {
+        return mInCallScreenPrewarmer != null && mInCallScreenPrewarmer.isWarm();
+    }
+
+    /* package */ ContactPhotoCache getContactPhotoCache() {
+        return mContactPhotoCache;
+    }
+
+    /* package */ CallTimeTicker getCallTimeTicker() {
+        return mCallTimeTicker;
+    }
+
+    /**
+     * @return the shared local tone player for a stream type and volume.
+     *     Must be called on the main thread.
+     */
+    /* package */ LocalTonePlayer getLocalTonePlayer(int streamType, int volume) {
+        int key = (streamType << 8) | volume;
+        LocalTonePlayer player = mLocalTonePlayers.get(key);
+        if (player == null) {
+            player = new LocalTonePlayer(streamType, volume);
+            mLocalTonePlayers.put(key, player);
+        }
+        return player;
+    }
+
+    /* package */ void dumpLocalTonePlayers(PrintWriter pw) {
+        for (int i = 0; i < mLocalTonePlayers.size(); i++) {
+            mLocalTonePlayers.valueAt(i).dump(pw);
         }
     }
 
+    /* package */ MainLooperWatchdog getMainLooperWatchdog() {
+        return mMainLooperWatchdog;
+    }
+
+    /* package */ PowerStateController getPowerStateController() {
+        return mPowerStateController;
+    }
+
     /* package */ Phone.State getPhoneState() {
         return mLastPhoneState;
     }
@@ -1265,6 +1399,8 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
     private void onMMIComplete(AsyncResult r) {
         if (VDBG) Log.d(LOG_TAG, "onMMIComplete()...");
         MmiCode mmiCode = (MmiCode) r.result;
+        // The MMI code may have changed the call forwarding settings.
+        CallForwardInfoCache.clear();
         PhoneUtils.displayMMIComplete(phone, getInstance(), mmiCode, null, null);
     }
 
@@ -1411,10 +1547,103 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
 
     /**
      * Receiver for misc intent broadcasts the Phone app cares about.
+     *
+     * onReceive() runs on mBroadcastThread, not on the main thread (which
+     * also runs the CallNotifier and the ITelephony requests), so that an
+     * incoming call is never queued behind a burst of unrelated
+     * broadcasts.  Each broadcast is reduced to the state it carries (see
+     * getBroadcastKey()) and dropped if that state hasn't changed since
+     * the last one of the same action.  The rest are handed to the main
+     * thread (see handleBroadcast()) with at most one pending per action
+     * at a time: if, say, several service state changes arrive while the
+     * main thread is busy, only the latest one gets handled.
      */
     private class PhoneAppBroadcastReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+
+            if (action.equals(TelephonyIntents.ACTION_SIM_STATE_CHANGED)) {
+                // The SIM contacts may have changed (or belong to a
+                // different SIM) now.
+                AdnSnapshot.invalidate();
+            }
+
+            String key = getBroadcastKey(action, intent);
+            boolean coalesce = (key != null) || action.equals(Intent.ACTION_BATTERY_LOW);
+            synchronized (mPendingBroadcasts) {
+                mBroadcastsReceived++;
+                if (key != null) {
+                    if (key.equals(mLastBroadcastKeys.get(action))) {
+                        if (VDBG) Log.d(LOG_TAG, "mReceiver: unchanged " + action);
+                        mBroadcastsUnchanged++;
+                        return;
+                    }
+                    mLastBroadcastKeys.put(action, key);
+                }
+                if (coalesce) {
+                    boolean pending = mPendingBroadcasts.containsKey(action);
+                    mPendingBroadcasts.put(action, intent);
+                    if (pending) {
+                        if (VDBG) Log.d(LOG_TAG, "mReceiver: coalesced " + action);
+                        mBroadcastsCoalesced++;
+                        return;
+                    }
+                }
+            }
+
+            final Intent delivered = coalesce ? null : intent;
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Intent latest = delivered;
+                    if (latest == null) {
+                        synchronized (mPendingBroadcasts) {
+                            latest = mPendingBroadcasts.remove(action);
+                        }
+                    }
+                    handleBroadcast(PhoneApp.this, latest);
+                }
+            });
+        }
+
+        /**
+         * @return the part of the broadcast that handleBroadcast() acts
+         *     on, for spotting broadcasts that don't change anything; or
+         *     null if every broadcast of this action needs handling.
+         *     Called on mBroadcastThread.
+         */
+        private String getBroadcastKey(String action, Intent intent) {
+            if (action.equals(BluetoothHeadset.ACTION_STATE_CHANGED)) {
+                return String.valueOf(intent.getIntExtra(BluetoothHeadset.EXTRA_STATE,
+                                                         BluetoothHeadset.STATE_ERROR));
+            } else if (action.equals(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED)) {
+                return String.valueOf(intent.getIntExtra(BluetoothHeadset.EXTRA_AUDIO_STATE,
+                                                         BluetoothHeadset.STATE_ERROR));
+            } else if (action.equals(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED)) {
+                return String.valueOf(isDataDisconnectedDueToRoaming(intent));
+            } else if (action.equals(Intent.ACTION_HEADSET_PLUG)) {
+                return String.valueOf(intent.getIntExtra("state", 0));
+            } else if (action.equals(Intent.ACTION_DOCK_EVENT)) {
+                return String.valueOf(intent.getIntExtra(Intent.EXTRA_DOCK_STATE,
+                                                         Intent.EXTRA_DOCK_STATE_UNDOCKED));
+            } else if (action.equals(TelephonyIntents.ACTION_SERVICE_STATE_CHANGED)) {
+                ServiceState ss = ServiceState.newFromBundle(intent.getExtras());
+                return (ss != null) ? String.valueOf(ss.getState()) : "null";
+            } else if (action.equals(TtyIntent.TTY_PREFERRED_MODE_CHANGE_ACTION)) {
+                return String.valueOf(intent.getIntExtra(TtyIntent.TTY_PREFFERED_MODE,
+                                                         Phone.TTY_MODE_OFF));
+            } else if (action.equals(AudioManager.RINGER_MODE_CHANGED_ACTION)) {
+                return String.valueOf(intent.getIntExtra(AudioManager.EXTRA_RINGER_MODE,
+                                                         AudioManager.RINGER_MODE_NORMAL));
+            }
+            return null;
+        }
+
+        /**
+         * Handles a broadcast passed on by onReceive().  Runs on the main
+         * thread.
+         */
+        private void handleBroadcast(Context context, Intent intent) {
             String action = intent.getAction();
             if (action.equals(Intent.ACTION_AIRPLANE_MODE_CHANGED)) {
                 // When airplane mode is selected/deselected from settings
@@ -1443,20 +1672,7 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
                 if (VDBG) Log.d(LOG_TAG, "- reason: "
                                 + intent.getStringExtra(Phone.STATE_CHANGE_REASON_KEY));
 
-                // The "data disconnected due to roaming" notification is
-                // visible if you've lost data connectivity because you're
-                // roaming and you have the "data roaming" feature turned off.
-                boolean disconnectedDueToRoaming = false;
-                if ("DISCONNECTED".equals(intent.getStringExtra(Phone.STATE_KEY))) {
-                    String reason = intent.getStringExtra(Phone.STATE_CHANGE_REASON_KEY);
-                    if (Phone.REASON_ROAMING_ON.equals(reason)) {
-                        // We just lost our data connection, and the reason
-                        // is that we started roaming.  This implies that
-                        // the user has data roaming turned off.
-                        disconnectedDueToRoaming = true;
-                    }
-                }
-                mHandler.sendEmptyMessage(disconnectedDueToRoaming
+                mHandler.sendEmptyMessage(isDataDisconnectedDueToRoaming(intent)
                                           ? EVENT_DATA_ROAMING_DISCONNECTED
                                           : EVENT_DATA_ROAMING_OK);
             } else if (action.equals(Intent.ACTION_HEADSET_PLUG)) {
@@ -1478,6 +1694,8 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
                             intent.getStringExtra(IccCard.INTENT_KEY_ICC_STATE)));
                 }
 
+                CallForwardInfoCache.clear();
+
                 String iccState = intent.getStringExtra(IccCard.INTENT_KEY_ICC_STATE);
                 String reason = intent.getStringExtra(IccCard.INTENT_KEY_LOCKED_REASON);
                 if ((reason != null) && (IccCard.INTENT_VALUE_ICC_LOCKED.equals(iccState))) {
@@ -1528,6 +1746,39 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
         }
     }
 
+    /**
+     * The "data disconnected due to roaming" notification is visible if
+     * you've lost data connectivity because you're roaming and you have
+     * the "data roaming" feature turned off.
+     *
+     * @return true if an ACTION_ANY_DATA_CONNECTION_STATE_CHANGED
+     *     broadcast says that this just happened.
+     */
+    private static boolean isDataDisconnectedDueToRoaming(Intent intent) {
+        if ("DISCONNECTED".equals(intent.getStringExtra(Phone.STATE_KEY))) {
+            String reason = intent.getStringExtra(Phone.STATE_CHANGE_REASON_KEY);
+            if (Phone.REASON_ROAMING_ON.equals(reason)) {
+                // We just lost our data connection, and the reason
+                // is that we started roaming.  This implies that
+                // the user has data roaming turned off.
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prints the PhoneAppBroadcastReceiver statistics.
+     */
+    /* package */ void dumpBroadcastStats(PrintWriter pw) {
+        synchronized (mPendingBroadcasts) {
+            pw.println("Broadcasts: received=" + mBroadcastsReceived
+                    + " unchanged=" + mBroadcastsUnchanged
+                    + " coalesced=" + mBroadcastsCoalesced
+                    + " pending=" + mPendingBroadcasts.size());
+        }
+    }
+
     /**
      * Broadcast receiver for the ACTION_MEDIA_BUTTON broadcast intent.
      *
@@ -1536,6 +1787,10 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
      * separate BroadcastReceiver instance, since we need to manually
      * adjust its IntentFilter's priority (to make sure we get these
      * intents *before* the media player.)
+     *
+     * Unlike PhoneAppBroadcastReceiver, this one runs on the main thread:
+     * whether to abort the (ordered) broadcast depends on
+     * handleHeadsetHook(), which has to run there anyway.
      */
     private class MediaButtonBroadcastReceiver extends BroadcastReceiver {
         @Override
@@ -1698,12 +1953,7 @@ public class PhoneApp extends Application implements AccelerometerListener.Orien
     }
 
     /* package */ void clearUserActivityTimeout() {
-        try {
-            mPowerManagerService.clearUserActivityTimeout(SystemClock.uptimeMillis(),
-                    10*1000 /* 10 sec */);
-        } catch (RemoteException ex) {
-            // System process is dead.
-        }
+        mPowerStateController.clearUserActivityTimeout(10*1000 /* 10 sec */);
     }
 
     private void showDepersonalizationScreen(String reason) {
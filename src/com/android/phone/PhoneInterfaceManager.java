@@ -17,7 +17,9 @@
 
 package com.android.phone;
 
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.Binder;
@@ -25,14 +27,17 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Parcel;
+import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.telephony.NeighboringCellInfo;
+import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.android.internal.telephony.DefaultPhoneNotifier;
 import com.android.internal.telephony.IccCard;
 import com.android.internal.telephony.ITelephony;
 import com.android.internal.telephony.Phone;
@@ -41,6 +46,10 @@ import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.Phone.IPVersion;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -58,27 +67,104 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     private static final int CMD_ANSWER_RINGING_CALL = 4;
     private static final int CMD_END_CALL = 5;  // not used yet
     private static final int CMD_SILENCE_RINGER = 6;
-    private static final int CMD_INVOKE_OEM_RIL_REQUEST = 7;
-    private static final int EVENT_INVOKE_OEM_RIL_REQUEST = 8;
     private static final int EVENT_UNSOL_OEM_HOOK_EXT_APP = 9;
+    private static final int EVENT_PRECISE_CALL_STATE_CHANGED = 10;
+
+    // Names of the CMD_* codes, for dump().
+    private static final String[] COMMAND_NAMES = {
+        null, "handlePinMmi", "neighboringCell", null, "answerRingingCall",
+        "endCall", "silenceRinger"
+    };
+
+    // How long a binder thread waits in sendRequest() for each CMD_* code,
+    // in ms.  Generous, since giving up means failing the call; the point
+    // is to get the binder thread back if the main thread is stuck.
+    private static final long PIN_MMI_TIMEOUT = 30000;
+    private static final long NEIGHBORING_CELL_TIMEOUT = 10000;
+    private static final long END_CALL_TIMEOUT = 10000;
+
+    // How long sendOemRilRequestRaw() waits for the RIL, in ms.
+    private static final long OEM_RIL_REQUEST_TIMEOUT = 20000;
+
+    // Per-command statistics (see recordRequest()), indexed by CMD_* code.
+    private final int[] mRequestCount = new int[COMMAND_NAMES.length];
+    private final int[] mRequestTimeouts = new int[COMMAND_NAMES.length];
+    private final long[] mRequestQueueMillis = new long[COMMAND_NAMES.length];
+    private final long[] mRequestMaxQueueMillis = new long[COMMAND_NAMES.length];
+    private final long[] mRequestServiceMillis = new long[COMMAND_NAMES.length];
+    private final long[] mRequestMaxServiceMillis = new long[COMMAND_NAMES.length];
+
+    // Neighboring cell info: the last successful result, and the request
+    // in flight (if any), which concurrent callers share.  See
+    // getNeighboringCellInfo().  Guarded by mNeighboringCellLock.
+    private final Object mNeighboringCellLock = new Object();
+    private final long mNeighboringCellTtl;
+    private ArrayList<NeighboringCellInfo> mNeighboringCells;
+    private long mNeighboringCellsTime;
+    private MainThreadRequest mNeighboringCellRequest;
+    private int mNeighboringCellCalls;
+    private int mNeighboringCellCacheHits;
+    private int mNeighboringCellJoined;
 
     PhoneApp mApp;
     Phone mPhone;
     CallManager mCM;
     MainThreadHandler mMainThreadHandler;
+    OemRilRequestTracker mOemRilRequests;
+    BinderCallStats mBinderCallStats;
+
+    // The state reported by the getters; see PhoneStateSnapshot.  Only
+    // the main thread writes it (in publishState()), and any thread may
+    // read it.
+    private volatile PhoneStateSnapshot mState;
+    private long mStateSerial;
+
+    // Phone state changes, besides precise call state changes (which
+    // come from the CallManager; see EVENT_PRECISE_CALL_STATE_CHANGED.)
+    private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            publishState();
+        }
+
+        @Override
+        public void onCallStateChanged(int state, String incomingNumber) {
+            publishState();
+        }
+
+        @Override
+        public void onDataConnectionStateChanged(int state, int networkType) {
+            publishState();
+        }
+
+        @Override
+        public void onDataActivity(int direction) {
+            publishState();
+        }
+    };
 
     /**
      * A request object for use with {@link MainThreadHandler}. Requesters should wait() on the
-     * request after sending. The main thread will notify the request when it is complete.
+     * request after sending. The main thread will notify the request when it is complete
+     * (see completeRequest()).
      */
     private static final class MainThreadRequest {
+        /** The CMD_* code of the request */
+        public final int command;
         /** The argument to use for the request */
         public Object argument;
         /** The result of the request that is run on the main thread */
         public Object result;
-
-        public MainThreadRequest(Object argument) {
+        /** When the request was sent, and when the main thread started on it (uptime ms) */
+        public final long sendTime;
+        public long startTime;
+        /** True if the requester timed out and no longer wants the result */
+        public boolean abandoned;
+
+        public MainThreadRequest(int command, Object argument) {
+            this.command = command;
             this.argument = argument;
+            this.sendTime = SystemClock.uptimeMillis();
         }
     }
 
@@ -101,15 +187,15 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
             Message onCompleted;
             AsyncResult ar;
 
+            if (msg.obj instanceof MainThreadRequest) {
+                ((MainThreadRequest) msg.obj).startTime = SystemClock.uptimeMillis();
+            }
+
             switch (msg.what) {
                 case CMD_HANDLE_PIN_MMI:
                     request = (MainThreadRequest) msg.obj;
-                    request.result = Boolean.valueOf(
-                            mPhone.handlePinMmi((String) request.argument));
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    completeRequest(request, Boolean.valueOf(
+                            mPhone.handlePinMmi((String) request.argument)));
                     break;
 
                 case CMD_HANDLE_NEIGHBORING_CELL:
@@ -123,23 +209,25 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                     ar = (AsyncResult) msg.obj;
                     request = (MainThreadRequest) ar.userObj;
                     if (ar.exception == null && ar.result != null) {
-                        request.result = ar.result;
+                        synchronized (mNeighboringCellLock) {
+                            mNeighboringCells = (ArrayList<NeighboringCellInfo>) ar.result;
+                            mNeighboringCellsTime = SystemClock.uptimeMillis();
+                        }
+                        completeRequest(request, ar.result);
                     } else {
                         // create an empty list to notify the waiting thread
-                        request.result = new ArrayList<NeighboringCellInfo>();
-                    }
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
+                        completeRequest(request, new ArrayList<NeighboringCellInfo>());
                     }
                     break;
 
                 case CMD_ANSWER_RINGING_CALL:
                     answerRingingCallInternal();
+                    completeRequest((MainThreadRequest) msg.obj, Boolean.TRUE);
                     break;
 
                 case CMD_SILENCE_RINGER:
                     silenceRingerInternal();
+                    completeRequest((MainThreadRequest) msg.obj, Boolean.TRUE);
                     break;
 
                 case CMD_END_CALL:
@@ -157,27 +245,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                         throw new IllegalStateException("Unexpected phone type: " + phoneType);
                     }
                     if (DBG) log("CMD_END_CALL: " + (hungUp ? "hung up!" : "no call to hang up"));
-                    request.result = hungUp;
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
-                    break;
-
-                case CMD_INVOKE_OEM_RIL_REQUEST:
-                    request = (MainThreadRequest)msg.obj;
-                    onCompleted = obtainMessage(EVENT_INVOKE_OEM_RIL_REQUEST, request);
-                    mPhone.invokeOemRilRequestRaw((byte[])request.argument, onCompleted);
-                    break;
-
-                case EVENT_INVOKE_OEM_RIL_REQUEST:
-                    ar = (AsyncResult)msg.obj;
-                    request = (MainThreadRequest)ar.userObj;
-                    request.result = ar;
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    completeRequest(request, hungUp);
                     break;
 
                 case EVENT_UNSOL_OEM_HOOK_EXT_APP:
@@ -185,6 +253,10 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                     broadcastUnsolOemHookIntent((byte[])(ar.result));
                     break;
 
+                case EVENT_PRECISE_CALL_STATE_CHANGED:
+                    publishState();
+                    break;
+
                 default:
                     Log.w(LOG_TAG, "MainThreadHandler: unexpected message code: " + msg.what);
                     break;
@@ -195,30 +267,143 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     /**
      * Posts the specified command to be executed on the main thread,
      * waits for the request to complete, and returns the result.
+     *
+     * Gives up after the command's timeout (see getRequestTimeout()), so
+     * that a busy or stuck main thread can't tie up the binder threads,
+     * and returns null.  A request the main thread hasn't started on by
+     * then is cancelled.
      * @see sendRequestAsync
      */
     private Object sendRequest(int command, Object argument) {
+        return waitForRequest(postRequest(command, argument));
+    }
+
+    /**
+     * Posts the specified command to be executed on the main thread.
+     * @return the request, to wait for with waitForRequest().
+     */
+    private MainThreadRequest postRequest(int command, Object argument) {
         if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
             throw new RuntimeException("This method will deadlock if called from the main thread.");
         }
 
-        MainThreadRequest request = new MainThreadRequest(argument);
+        MainThreadRequest request = new MainThreadRequest(command, argument);
         Message msg = mMainThreadHandler.obtainMessage(command, request);
         msg.sendToTarget();
+        return request;
+    }
 
-        // Wait for the request to complete
+    /**
+     * Waits for a request posted by postRequest() to complete, up to the
+     * command's timeout, and returns the result (or null on timeout.)
+     * Several threads may wait for the same request.
+     */
+    private Object waitForRequest(MainThreadRequest request) {
+        final int command = request.command;
+        long deadline = request.sendTime + getRequestTimeout(command);
+        boolean timedOut = false;
         synchronized (request) {
             while (request.result == null) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    request.abandoned = true;
+                    timedOut = true;
+                    break;
+                }
                 try {
-                    request.wait();
+                    request.wait(remaining);
                 } catch (InterruptedException e) {
                     // Do nothing, go back and wait until the request is complete
                 }
             }
         }
+
+        if (timedOut) {
+            mMainThreadHandler.removeMessages(command, request);
+            Log.w(LOG_TAG, "sendRequest: " + COMMAND_NAMES[command] + " timed out"
+                    + (request.startTime == 0 ? " before it was started" : ""));
+            synchronized (mRequestCount) {
+                mRequestTimeouts[command]++;
+            }
+            return null;
+        }
         return request.result;
     }
 
+    /**
+     * @return how long sendRequest() waits for the command, in ms.
+     */
+    private static long getRequestTimeout(int command) {
+        switch (command) {
+            case CMD_HANDLE_PIN_MMI:
+                return PIN_MMI_TIMEOUT;
+            case CMD_HANDLE_NEIGHBORING_CELL:
+                return NEIGHBORING_CELL_TIMEOUT;
+            case CMD_END_CALL:
+            default:
+                return END_CALL_TIMEOUT;
+        }
+    }
+
+    /**
+     * Completes a request on the main thread: hands the result to the
+     * waiting binder thread (if it's still waiting), and records the
+     * time the request spent queued and being serviced.
+     */
+    private void completeRequest(MainThreadRequest request, Object result) {
+        boolean abandoned;
+        // Wake up the requesting thread
+        synchronized (request) {
+            request.result = result;
+            abandoned = request.abandoned;
+            request.notifyAll();
+        }
+        if (abandoned) {
+            Log.w(LOG_TAG, "completeRequest: " + COMMAND_NAMES[request.command]
+                    + " finished after the requester gave up");
+        }
+        recordRequest(request.command, request.startTime - request.sendTime,
+                SystemClock.uptimeMillis() - request.startTime);
+    }
+
+    private void recordRequest(int command, long queueMillis, long serviceMillis) {
+        synchronized (mRequestCount) {
+            mRequestCount[command]++;
+            mRequestQueueMillis[command] += queueMillis;
+            mRequestServiceMillis[command] += serviceMillis;
+            if (queueMillis > mRequestMaxQueueMillis[command]) {
+                mRequestMaxQueueMillis[command] = queueMillis;
+            }
+            if (serviceMillis > mRequestMaxServiceMillis[command]) {
+                mRequestMaxServiceMillis[command] = serviceMillis;
+            }
+        }
+    }
+
+    /**
+     * Prints the main thread request statistics: for each command, the
+     * time spent waiting in the main thread's queue, the time until the
+     * result came back ("service"), and the number of timeouts.
+     */
+    private void dumpRequestStats(PrintWriter pw) {
+        pw.println("Main thread requests:");
+        synchronized (mRequestCount) {
+            for (int i = 0; i < COMMAND_NAMES.length; i++) {
+                if (COMMAND_NAMES[i] == null
+                        || (mRequestCount[i] == 0 && mRequestTimeouts[i] == 0)) {
+                    continue;
+                }
+                int count = Math.max(mRequestCount[i], 1);
+                pw.println("  " + COMMAND_NAMES[i] + ": count=" + mRequestCount[i]
+                        + " timeouts=" + mRequestTimeouts[i]
+                        + " queue avg=" + (mRequestQueueMillis[i] / count)
+                        + "ms max=" + mRequestMaxQueueMillis[i]
+                        + "ms, service avg=" + (mRequestServiceMillis[i] / count)
+                        + "ms max=" + mRequestMaxServiceMillis[i] + "ms");
+            }
+        }
+    }
+
     public void broadcastUnsolOemHookIntent(byte[] payload) {
         Intent intent = new Intent(TelephonyIntents.ACTION_UNSOL_RESPONSE_OEM_HOOK_RAW);
         intent.putExtra("payload", payload);
@@ -229,11 +414,13 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     /**
      * Asynchronous ("fire and forget") version of sendRequest():
      * Posts the specified command to be executed on the main thread, and
-     * returns immediately.
+     * returns immediately.  (The request object is only used for the
+     * statistics.)
      * @see sendRequest
      */
     private void sendRequestAsync(int command) {
-        mMainThreadHandler.sendEmptyMessage(command);
+        mMainThreadHandler.obtainMessage(command, new MainThreadRequest(command, null))
+                .sendToTarget();
     }
 
     public PhoneInterfaceManager(PhoneApp app, Phone phone) {
@@ -241,17 +428,57 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         mPhone = phone;
         mCM = PhoneApp.getInstance().mCM;
         mMainThreadHandler = new MainThreadHandler();
+        mOemRilRequests = new OemRilRequestTracker(mPhone);
+        mBinderCallStats = new BinderCallStats("phone", ITelephony.Stub.class,
+                app.getPackageManager());
+        mNeighboringCellTtl = app.getResources().getInteger(R.integer.neighboring_cell_cache_ttl_ms);
         Log.d(LOG_TAG, " Registering for UNSOL OEM HOOK Responses to deliver external apps");
         mPhone.setOnUnsolOemHookExtApp(mMainThreadHandler, EVENT_UNSOL_OEM_HOOK_EXT_APP, null);
+
+        // Keep mState up to date.
+        publishState();
+        mCM.registerForPreciseCallStateChanged(mMainThreadHandler,
+                EVENT_PRECISE_CALL_STATE_CHANGED, null);
+        TelephonyManager tm = (TelephonyManager) app.getSystemService(Context.TELEPHONY_SERVICE);
+        tm.listen(mPhoneStateListener,
+                PhoneStateListener.LISTEN_SERVICE_STATE
+                | PhoneStateListener.LISTEN_CALL_STATE
+                | PhoneStateListener.LISTEN_DATA_CONNECTION_STATE
+                | PhoneStateListener.LISTEN_DATA_ACTIVITY);
+
         publish();
     }
 
+    /**
+     * Captures the current phone state into a new snapshot for the
+     * getters.  Must be called on the main thread.
+     */
+    private void publishState() {
+        mState = PhoneStateSnapshot.capture(++mStateSerial, mPhone);
+    }
+
     private void publish() {
         if (DBG) log("publish: " + this);
 
         ServiceManager.addService("phone", this);
     }
 
+    /**
+     * Counts and times every incoming ITelephony call, per method and
+     * calling UID; see BinderCallStats.
+     */
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return super.onTransact(code, data, reply, flags);
+        } finally {
+            mBinderCallStats.record(code, Binder.getCallingUid(),
+                    (System.nanoTime() - start) / 1000);
+        }
+    }
+
     //
     // Implementation of the ITelephony interface.
     //
@@ -334,7 +561,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
      */
     public boolean endCall() {
         enforceCallPermission();
-        return (Boolean) sendRequest(CMD_END_CALL, null);
+        return Boolean.TRUE.equals(sendRequest(CMD_END_CALL, null));
     }
 
     public void answerRingingCall() {
@@ -408,15 +635,15 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     }
 
     public boolean isOffhook() {
-        return (mPhone.getState() == Phone.State.OFFHOOK);
+        return mState.isOffhook();
     }
 
     public boolean isRinging() {
-        return (mPhone.getState() == Phone.State.RINGING);
+        return mState.isRinging();
     }
 
     public boolean isIdle() {
-        return (mPhone.getState() == Phone.State.IDLE);
+        return mState.isIdle();
     }
 
     public boolean isSimPinEnabled() {
@@ -557,7 +784,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
     public boolean handlePinMmi(String dialString) {
         enforceModifyPermission();
-        return (Boolean) sendRequest(CMD_HANDLE_PIN_MMI, dialString);
+        return Boolean.TRUE.equals(sendRequest(CMD_HANDLE_PIN_MMI, dialString));
     }
 
     public void cancelMissedCallsNotification() {
@@ -566,15 +793,15 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     }
 
     public int getCallState() {
-        return DefaultPhoneNotifier.convertCallState(mPhone.getState());
+        return mState.callState;
     }
 
     public int getDataState() {
-        return DefaultPhoneNotifier.convertDataState(mPhone.getDataConnectionState());
+        return mState.dataState;
     }
 
     public int getDataActivity() {
-        return DefaultPhoneNotifier.convertDataActivityState(mPhone.getDataActivityState());
+        return mState.dataActivity;
     }
 
     public Bundle getCellLocation() {
@@ -621,11 +848,40 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
         ArrayList<NeighboringCellInfo> cells = null;
 
+        // Location apps tend to poll this, often several at once.  A
+        // recent enough result is returned as is, and callers arriving
+        // while a RIL request is in flight wait for that one instead of
+        // sending their own.
+        MainThreadRequest request = null;
         try {
-            cells = (ArrayList<NeighboringCellInfo>) sendRequest(
-                    CMD_HANDLE_NEIGHBORING_CELL, null);
+            synchronized (mNeighboringCellLock) {
+                mNeighboringCellCalls++;
+                if (mNeighboringCells != null && SystemClock.uptimeMillis()
+                        - mNeighboringCellsTime < mNeighboringCellTtl) {
+                    mNeighboringCellCacheHits++;
+                    return mNeighboringCells;
+                }
+                request = mNeighboringCellRequest;
+                if (request != null) {
+                    mNeighboringCellJoined++;
+                } else {
+                    request = postRequest(CMD_HANDLE_NEIGHBORING_CELL, null);
+                    mNeighboringCellRequest = request;
+                }
+            }
+            cells = (ArrayList<NeighboringCellInfo>) waitForRequest(request);
+            if (cells == null) {
+                // Timed out.
+                cells = new ArrayList<NeighboringCellInfo>();
+            }
         } catch (RuntimeException e) {
             Log.e(LOG_TAG, "getNeighboringCellInfo " + e);
+        } finally {
+            synchronized (mNeighboringCellLock) {
+                if (mNeighboringCellRequest == request) {
+                    mNeighboringCellRequest = null;
+                }
+            }
         }
 
         return (List <NeighboringCellInfo>) cells;
@@ -678,8 +934,63 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         Log.d(LOG_TAG, "[PhoneIntfMgr] " + msg);
     }
 
+    /**
+     * Implementation of "adb shell dumpsys phone".
+     *
+     * With no arguments this prints the current call state followed by
+     * the CallStateRecorder history.  "dumpsys phone --recorder-binary"
+     * instead writes the raw recorder contents (see
+     * CallStateRecorder.writeBinary()) so they can be attached to a bug
+     * report and decoded offline.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (mApp.checkCallingOrSelfPermission(android.Manifest.permission.DUMP)
+                != PackageManager.PERMISSION_GRANTED) {
+            pw.println("Permission Denial: can't dump phone from pid="
+                    + Binder.getCallingPid() + ", uid=" + Binder.getCallingUid());
+            return;
+        }
+
+        if (args != null && args.length > 0 && "--recorder-binary".equals(args[0])) {
+            try {
+                CallStateRecorder.writeBinary(new FileOutputStream(fd));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "dump: couldn't write recorder contents: " + e);
+            }
+            return;
+        }
+
+        pw.println("Phone state: " + mCM.getState()
+                + ", fg = " + mCM.getActiveFgCallState()
+                + ", bg = " + mCM.getFirstActiveBgCall().getState()
+                + ", ringing = " + mCM.getFirstActiveRingingCall().getState());
+        pw.println("Published state: " + mState);
+        mApp.getAudioRouteController().dump(pw);
+        mApp.getPowerStateController().dump(pw);
+        mApp.dumpBroadcastStats(pw);
+        dumpRequestStats(pw);
+        mOemRilRequests.dump(pw);
+        mBinderCallStats.dump(pw);
+        synchronized (mNeighboringCellLock) {
+            pw.println("Neighboring cell info: calls=" + mNeighboringCellCalls
+                    + " cacheHits=" + mNeighboringCellCacheHits
+                    + " joined=" + mNeighboringCellJoined
+                    + " rilRequestsAvoided="
+                    + (mNeighboringCellCacheHits + mNeighboringCellJoined)
+                    + " (ttl " + mNeighboringCellTtl + "ms)");
+        }
+        InCallScreen.dumpUpdateStats(pw);
+        InCallControlState.dumpStats(pw);
+        DtmfBurstSender.dumpStats(pw);
+        mApp.getCallTimeTicker().dump(pw);
+        mApp.dumpLocalTonePlayers(pw);
+        CallStateRecorder.dump(pw);
+        mApp.getMainLooperWatchdog().dump(pw);
+    }
+
     public int getActivePhoneType() {
-        return mPhone.getPhoneType();
+        return mState.phoneType;
     }
 
     public int sendOemRilRequestRaw(byte[] request, byte[] response) {
@@ -687,7 +998,14 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         // TODO: Check Permissions of the application
 
         try {
-            AsyncResult result = (AsyncResult)sendRequest(CMD_INVOKE_OEM_RIL_REQUEST, request);
+            // Sent directly rather than through the main thread, so that
+            // several requests can be outstanding at once.
+            AsyncResult result = mOemRilRequests.await(mOemRilRequests.send(request),
+                    OEM_RIL_REQUEST_TIMEOUT);
+            if (result == null) {
+                // Timed out; report it like any other failure.
+                throw new RuntimeException("timed out");
+            }
             if(result.exception == null) {
                 returnValue = 0;
                 if (result.result != null) {
@@ -719,7 +1037,8 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
      * Returns the CDMA ERI icon index to display
      */
     public int getCdmaEriIconIndex() {
-        return mPhone.getCdmaEriIconIndex();
+        PhoneStateSnapshot state = mState;
+        return state.hasEri ? state.eriIconIndex : mPhone.getCdmaEriIconIndex();
     }
 
     /**
@@ -728,14 +1047,16 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
      * 1 - FLASHING
      */
     public int getCdmaEriIconMode() {
-        return mPhone.getCdmaEriIconMode();
+        PhoneStateSnapshot state = mState;
+        return state.hasEri ? state.eriIconMode : mPhone.getCdmaEriIconMode();
     }
 
     /**
      * Returns the CDMA ERI text,
      */
     public String getCdmaEriText() {
-        return mPhone.getCdmaEriText();
+        PhoneStateSnapshot state = mState;
+        return state.hasEri ? state.eriText : mPhone.getCdmaEriText();
     }
 
     /**
@@ -768,36 +1089,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
      * Returns the network type
      */
     public int getNetworkType() {
-        int radiotech = mPhone.getServiceState().getRadioTechnology();
-        switch(radiotech) {
-            case ServiceState.RADIO_TECHNOLOGY_GPRS:
-                return TelephonyManager.NETWORK_TYPE_GPRS;
-            case ServiceState.RADIO_TECHNOLOGY_EDGE:
-                return TelephonyManager.NETWORK_TYPE_EDGE;
-            case ServiceState.RADIO_TECHNOLOGY_UMTS:
-                return TelephonyManager.NETWORK_TYPE_UMTS;
-            case ServiceState.RADIO_TECHNOLOGY_HSDPA:
-                return TelephonyManager.NETWORK_TYPE_HSDPA;
-            case ServiceState.RADIO_TECHNOLOGY_HSUPA:
-                return TelephonyManager.NETWORK_TYPE_HSUPA;
-            case ServiceState.RADIO_TECHNOLOGY_HSPA:
-                return TelephonyManager.NETWORK_TYPE_HSPA;
-            case ServiceState.RADIO_TECHNOLOGY_IS95A:
-            case ServiceState.RADIO_TECHNOLOGY_IS95B:
-                return TelephonyManager.NETWORK_TYPE_CDMA;
-            case ServiceState.RADIO_TECHNOLOGY_1xRTT:
-                return TelephonyManager.NETWORK_TYPE_1xRTT;
-            case ServiceState.RADIO_TECHNOLOGY_EVDO_0:
-                return TelephonyManager.NETWORK_TYPE_EVDO_0;
-            case ServiceState.RADIO_TECHNOLOGY_EVDO_A:
-                return TelephonyManager.NETWORK_TYPE_EVDO_A;
-            case ServiceState.RADIO_TECHNOLOGY_EVDO_B:
-                return TelephonyManager.NETWORK_TYPE_EVDO_B;
-            case ServiceState.RADIO_TECHNOLOGY_EHRPD:
-                return TelephonyManager.NETWORK_TYPE_EHRPD;
-            default:
-                return TelephonyManager.NETWORK_TYPE_UNKNOWN;
-        }
+        return mState.networkType;
     }
 
     /**
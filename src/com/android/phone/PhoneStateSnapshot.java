@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.telephony.ServiceState;
+import android.telephony.TelephonyManager;
+
+import com.android.internal.telephony.DefaultPhoneNotifier;
+import com.android.internal.telephony.Phone;
+
+/**
+ * Immutable copy of the phone state that the ITelephony getters report
+ * (see PhoneInterfaceManager): call state, data state and activity,
+ * network type, phone type and the CDMA ERI values.
+ *
+ * The main thread captures a new snapshot from the Phone whenever any of
+ * those may have changed, and publishes it through a volatile reference.
+ * Binder threads then answer the getters from the latest snapshot, with
+ * no locking and without calling into the (not thread-safe) Phone
+ * objects.  Since all the values of one snapshot were captured together,
+ * a caller never sees, say, isIdle() and getCallState() disagree.
+ */
+/* package */ final class PhoneStateSnapshot {
+    /** Sequence number, increasing with each capture. */
+    final long serial;
+
+    final Phone.State state;
+    /** TelephonyManager.CALL_STATE_* */
+    final int callState;
+    /** TelephonyManager.DATA_* connection state */
+    final int dataState;
+    /** TelephonyManager.DATA_ACTIVITY_* */
+    final int dataActivity;
+    /** TelephonyManager.NETWORK_TYPE_* */
+    final int networkType;
+    /** Phone.PHONE_TYPE_* */
+    final int phoneType;
+
+    /** True if the ERI values below are valid (CDMA phones only) */
+    final boolean hasEri;
+    final int eriIconIndex;
+    final int eriIconMode;
+    final String eriText;
+
+    PhoneStateSnapshot(long serial, Phone.State state, int dataState, int dataActivity,
+            int radioTechnology, int phoneType, boolean hasEri,
+            int eriIconIndex, int eriIconMode, String eriText) {
+        this.serial = serial;
+        this.state = state;
+        this.callState = DefaultPhoneNotifier.convertCallState(state);
+        this.dataState = dataState;
+        this.dataActivity = dataActivity;
+        this.networkType = getNetworkType(radioTechnology);
+        this.phoneType = phoneType;
+        this.hasEri = hasEri;
+        this.eriIconIndex = eriIconIndex;
+        this.eriIconMode = eriIconMode;
+        this.eriText = eriText;
+    }
+
+    /**
+     * Captures the current state of the phone.  Must be called on the
+     * main thread.
+     */
+    static PhoneStateSnapshot capture(long serial, Phone phone) {
+        int phoneType = phone.getPhoneType();
+        boolean hasEri = (phoneType == Phone.PHONE_TYPE_CDMA);
+        return new PhoneStateSnapshot(serial,
+                phone.getState(),
+                DefaultPhoneNotifier.convertDataState(phone.getDataConnectionState()),
+                DefaultPhoneNotifier.convertDataActivityState(phone.getDataActivityState()),
+                phone.getServiceState().getRadioTechnology(),
+                phoneType,
+                hasEri,
+                hasEri ? phone.getCdmaEriIconIndex() : -1,
+                hasEri ? phone.getCdmaEriIconMode() : -1,
+                hasEri ? phone.getCdmaEriText() : null);
+    }
+
+    boolean isOffhook() {
+        return state == Phone.State.OFFHOOK;
+    }
+
+    boolean isRinging() {
+        return state == Phone.State.RINGING;
+    }
+
+    boolean isIdle() {
+        return state == Phone.State.IDLE;
+    }
+
+    /**
+     * @return the TelephonyManager.NETWORK_TYPE_* for a
+     *     ServiceState.RADIO_TECHNOLOGY_*.
+     */
+    static int getNetworkType(int radiotech) {
+        switch(radiotech) {
+            case ServiceState.RADIO_TECHNOLOGY_GPRS:
+                return TelephonyManager.NETWORK_TYPE_GPRS;
+            case ServiceState.RADIO_TECHNOLOGY_EDGE:
+                return TelephonyManager.NETWORK_TYPE_EDGE;
+            case ServiceState.RADIO_TECHNOLOGY_UMTS:
+                return TelephonyManager.NETWORK_TYPE_UMTS;
+            case ServiceState.RADIO_TECHNOLOGY_HSDPA:
+                return TelephonyManager.NETWORK_TYPE_HSDPA;
+            case ServiceState.RADIO_TECHNOLOGY_HSUPA:
+                return TelephonyManager.NETWORK_TYPE_HSUPA;
+            case ServiceState.RADIO_TECHNOLOGY_HSPA:
+                return TelephonyManager.NETWORK_TYPE_HSPA;
+            case ServiceState.RADIO_TECHNOLOGY_IS95A:
+            case ServiceState.RADIO_TECHNOLOGY_IS95B:
+                return TelephonyManager.NETWORK_TYPE_CDMA;
+            case ServiceState.RADIO_TECHNOLOGY_1xRTT:
+                return TelephonyManager.NETWORK_TYPE_1xRTT;
+            case ServiceState.RADIO_TECHNOLOGY_EVDO_0:
+                return TelephonyManager.NETWORK_TYPE_EVDO_0;
+            case ServiceState.RADIO_TECHNOLOGY_EVDO_A:
+                return TelephonyManager.NETWORK_TYPE_EVDO_A;
+            case ServiceState.RADIO_TECHNOLOGY_EVDO_B:
+                return TelephonyManager.NETWORK_TYPE_EVDO_B;
+            case ServiceState.RADIO_TECHNOLOGY_EHRPD:
+                return TelephonyManager.NETWORK_TYPE_EHRPD;
+            default:
+                return TelephonyManager.NETWORK_TYPE_UNKNOWN;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "#" + serial + " state=" + state + " data=" + dataState + "/" + dataActivity
+                + " networkType=" + networkType + " phoneType=" + phoneType
+                + (hasEri ? " eri=" + eriIconIndex + "/" + eriIconMode + "/" + eriText : "");
+    }
+}
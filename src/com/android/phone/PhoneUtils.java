@@ -28,7 +28,6 @@ import android.content.ServiceConnection;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
-import android.media.AudioManager;
 import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.Handler;
@@ -289,13 +288,21 @@ public class PhoneUtils {
                 PhoneApp.getInstance().mCM.acceptCall(ringing);
                 answered = true;
 
-                // Always reset to "unmuted" for a freshly-answered call
-                setMute(false);
+                // Apply the mute, audio mode and speaker changes for the
+                // newly answered call as a single audio route change.
+                AudioRouteController audioRoute = app.getAudioRouteController();
+                audioRoute.beginTransaction();
+                try {
+                    // Always reset to "unmuted" for a freshly-answered call
+                    setMute(false);
 
-                setAudioMode();
+                    setAudioMode();
 
-                // Check is phone in any dock, and turn on speaker accordingly
-                activateSpeakerIfDocked(phone);
+                    // Check is phone in any dock, and turn on speaker accordingly
+                    activateSpeakerIfDocked(phone);
+                } finally {
+                    audioRoute.endTransaction();
+                }
             } catch (CallStateException ex) {
                 Log.w(LOG_TAG, "answerCall: caught " + ex, ex);
 
@@ -1696,9 +1703,9 @@ public class PhoneUtils {
 
     static void turnOnSpeaker(Context context, boolean flag, boolean store) {
         if (DBG) log("turnOnSpeaker(flag=" + flag + ", store=" + store + ")...");
-        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        PhoneApp app = PhoneApp.getInstance();
 
-        audioManager.setSpeakerphoneOn(flag);
+        app.getAudioRouteController().setSpeakerphoneOn(flag);
         // record the speaker-enable value
         if (store) {
             sIsSpeakerEnabled = flag;
@@ -1713,7 +1720,6 @@ public class PhoneUtils {
         // any time the speaker state changes, since the screen timeout is
         // sometimes different depending on whether or not the speaker is
         // in use.
-        PhoneApp app = PhoneApp.getInstance();
         app.updateWakeState();
 
         // Update the Proximity sensor based on speaker state
@@ -1736,24 +1742,18 @@ public class PhoneUtils {
     }
 
     static boolean isSpeakerOn(Context context) {
-        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-        return audioManager.isSpeakerphoneOn();
+        return PhoneApp.getInstance().getAudioRouteController().isSpeakerphoneOn();
     }
 
 
     static void turnOnNoiseSuppression(Context context, boolean flag, boolean store) {
         if (DBG) log("turnOnNoiseSuppression: " + flag);
-        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
 
         if (!context.getResources().getBoolean(R.bool.has_in_call_noise_suppression)) {
             return;
         }
 
-        if (flag) {
-            audioManager.setParameters("noise_suppression=auto");
-        } else {
-            audioManager.setParameters("noise_suppression=off");
-        }
+        PhoneApp.getInstance().getAudioRouteController().setNoiseSuppressionOn(flag);
 
         // record the speaker-enable value
         if (store) {
@@ -1783,14 +1783,7 @@ public class PhoneUtils {
             return false;
         }
 
-        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-        String noiseSuppression = audioManager.getParameters("noise_suppression");
-        if (DBG) log("isNoiseSuppressionOn: " + noiseSuppression);
-        if (noiseSuppression.contains("off")) {
-            return false;
-        } else {
-            return true;
-        }
+        return PhoneApp.getInstance().getAudioRouteController().isNoiseSuppressionOn();
     }
 
     /**
@@ -1830,13 +1823,12 @@ public class PhoneUtils {
         boolean routeToAudioManager =
             context.getResources().getBoolean(R.bool.send_mic_mute_to_AudioManager);
         if (routeToAudioManager) {
-            AudioManager audioManager =
-                (AudioManager) phone.getContext().getSystemService(Context.AUDIO_SERVICE);
             if (DBG) log("setMicrophoneMute: " + muted);
-            audioManager.setMicrophoneMute(muted);
+            PhoneApp.getInstance().getAudioRouteController().setMicrophoneMute(muted);
         } else {
             phone.setMute(muted);
         }
+        CallStateRecorder.record(CallStateRecorder.EVENT_MUTE, muted ? 1 : 0);
         NotificationMgr.getDefault().updateMuteNotification();
     }
 
@@ -1850,9 +1842,7 @@ public class PhoneUtils {
         boolean routeToAudioManager =
             app.getResources().getBoolean(R.bool.send_mic_mute_to_AudioManager);
         if (routeToAudioManager) {
-            AudioManager audioManager =
-                (AudioManager) app.getSystemService(Context.AUDIO_SERVICE);
-            return audioManager.isMicrophoneMute();
+            return app.getAudioRouteController().isMicrophoneMute();
         } else {
             return app.mCM.getMute();
         }
@@ -1864,34 +1854,17 @@ public class PhoneUtils {
 
     /**
      * Sets the audio mode per current phone state.
+     *
+     * This goes through the AudioRouteController, which skips the
+     * AudioManager entirely if the phone state hasn't changed since the
+     * mode was last set.
      */
     /* package */ static void setAudioMode(CallManager cm) {
         if (DBG) Log.d(LOG_TAG, "setAudioMode()..." + cm.getState());
+        // Enable stack dump only when actively debugging ("new Throwable()" is expensive!)
+        if (DBG_SETAUDIOMODE_STACK) Log.d(LOG_TAG, "Stack:", new Throwable("stack dump"));
 
-        Context context = PhoneApp.getInstance();
-        AudioManager audioManager = (AudioManager)
-                context.getSystemService(Context.AUDIO_SERVICE);
-        int modeBefore = audioManager.getMode();
-        cm.setAudioMode();
-        int modeAfter = audioManager.getMode();
-
-        if (modeBefore != modeAfter) {
-            // Enable stack dump only when actively debugging ("new Throwable()" is expensive!)
-            if (DBG_SETAUDIOMODE_STACK) Log.d(LOG_TAG, "Stack:", new Throwable("stack dump"));
-        } else {
-            if (DBG) Log.d(LOG_TAG, "setAudioMode() no change: "
-                    + audioModeToString(modeBefore));
-        }
-    }
-    private static String audioModeToString(int mode) {
-        switch (mode) {
-            case AudioManager.MODE_INVALID: return "MODE_INVALID";
-            case AudioManager.MODE_CURRENT: return "MODE_CURRENT";
-            case AudioManager.MODE_NORMAL: return "MODE_NORMAL";
-            case AudioManager.MODE_RINGTONE: return "MODE_RINGTONE";
-            case AudioManager.MODE_IN_CALL: return "MODE_IN_CALL";
-            default: return String.valueOf(mode);
-        }
+        PhoneApp.getInstance().getAudioRouteController().setAudioMode(cm);
     }
 
     /**
@@ -1956,7 +1929,7 @@ public class PhoneUtils {
                      event.getRepeatCount() == 0) {
                 Connection c = phone.getForegroundCall().getLatestConnection();
                 // If it is NOT an emg #, toggle the mute state. Otherwise, ignore the hook.
-                if (c != null && !PhoneNumberUtils.isEmergencyNumber(c.getAddress())) {
+                if (c != null && !EmergencyNumberMatcher.isEmergencyNumber(c.getAddress())) {
                     if (getMute()) {
                         if (DBG) log("handleHeadsetHook: UNmuting...");
                         setMute(false);
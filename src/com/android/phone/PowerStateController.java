@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.Context;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.IPowerManager;
+import android.os.PowerManager;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Single owner of the phone app's requests to the PowerManager: the
+ * FULL and PARTIAL wake locks, the poke lock, preventScreenOn() and user
+ * activity pokes.
+ *
+ * Each of these is a binder IPC into the system process, and a single
+ * call state change used to issue several of them, many of which didn't
+ * change anything.  This class remembers what we last told the
+ * PowerManager and drops requests that wouldn't change it.
+ *
+ * Requests that can't wait (acquiring a wake lock, or upgrading PARTIAL
+ * to FULL) are applied right away.  Everything else (releasing wake
+ * locks, poke lock changes, user activity pokes) is applied once at the
+ * end of the current main looper turn, so that a burst of requests
+ * during one call state change (say SLEEP, then FULL again after
+ * updateWakeState()) collapses into the final state, or into nothing.
+ *
+ * All methods are synchronized, since the wake state is requested from
+ * several threads.
+ */
+public class PowerStateController {
+    private static final String LOG_TAG = "PowerStateController";
+    private static final boolean DBG = (PhoneApp.DBG_LEVEL >= 2);
+
+    // Indices into the per-operation statistics arrays.
+    private static final int OP_WAKE_LOCK = 0;
+    private static final int OP_POKE_LOCK = 1;
+    private static final int OP_PREVENT_SCREEN_ON = 2;
+    private static final int OP_USER_ACTIVITY = 3;
+    private static final int NUM_OPS = 4;
+    private static final String[] OP_NAMES = {
+        "wakeLock", "pokeLock", "preventScreenOn", "userActivity"
+    };
+
+    private static final int UNKNOWN = -1;
+
+    private final IPowerManager mPowerManagerService;
+    private final PowerManager.WakeLock mWakeLock;
+    private final PowerManager.WakeLock mPartialWakeLock;
+    private final IBinder mPokeLockToken = new Binder();
+    private final Handler mHandler = new Handler();
+
+    // State as last applied to the PowerManager.
+    private PhoneApp.WakeState mWakeState = PhoneApp.WakeState.SLEEP;
+    private int mPokeLock = UNKNOWN;
+    private boolean mPreventScreenOn;
+
+    // State requested, to be applied at the end of the looper turn.
+    private PhoneApp.WakeState mRequestedWakeState = PhoneApp.WakeState.SLEEP;
+    private int mRequestedPokeLock = UNKNOWN;
+    private boolean mUserActivityPending;
+    private boolean mApplyScheduled;
+
+    // Statistics, reported by dump().
+    private final int[] mIssued = new int[NUM_OPS];
+    private final int[] mSkipped = new int[NUM_OPS];
+    private final int[] mCoalesced = new int[NUM_OPS];
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        public void run() {
+            applyPending();
+        }
+    };
+
+    public PowerStateController(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK
+                | PowerManager.ACQUIRE_CAUSES_WAKEUP,
+                PhoneApp.LOG_TAG);
+        // lock used to keep the processor awake, when we don't care for the display.
+        mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK
+                | PowerManager.ON_AFTER_RELEASE, PhoneApp.LOG_TAG);
+
+        // get a handle to the service so that we can use it later when we
+        // want to set the poke lock.
+        mPowerManagerService = IPowerManager.Stub.asInterface(
+                ServiceManager.getService("power"));
+    }
+
+    /**
+     * Requests a wake state.  Acquiring a wake lock happens right away;
+     * releasing one waits for the end of the looper turn, and doesn't
+     * happen at all if a stronger state is requested again by then.
+     */
+    synchronized void requestWakeState(PhoneApp.WakeState ws) {
+        if (ws == mRequestedWakeState) {
+            mSkipped[OP_WAKE_LOCK]++;
+            return;
+        }
+        if (mRequestedWakeState != mWakeState) {
+            // The previous request never made it to the PowerManager.
+            mCoalesced[OP_WAKE_LOCK]++;
+        }
+        mRequestedWakeState = ws;
+        if (ws.compareTo(mWakeState) > 0) {
+            applyWakeState(ws);
+        } else {
+            scheduleApply();
+        }
+    }
+
+    /**
+     * @return the requested wake state (which may not have been applied
+     *     yet, if it's a release.)
+     */
+    synchronized PhoneApp.WakeState getWakeState() {
+        return mRequestedWakeState;
+    }
+
+    /**
+     * Sets the poke lock flags (LocalPowerManager.POKE_LOCK_*), at the
+     * end of the looper turn.
+     */
+    synchronized void setPokeLock(int pokeLockSetting) {
+        if (pokeLockSetting == mRequestedPokeLock) {
+            mSkipped[OP_POKE_LOCK]++;
+            return;
+        }
+        if (mRequestedPokeLock != mPokeLock) {
+            // The previous request never made it to the PowerManager.
+            mCoalesced[OP_POKE_LOCK]++;
+        }
+        mRequestedPokeLock = pokeLockSetting;
+        scheduleApply();
+    }
+
+    /**
+     * Wrapper around the PowerManagerService.preventScreenOn() API.
+     * Applied right away, since it has to be ordered with the wake
+     * locks.  Clearing is skipped if it's already clear; setting is
+     * always passed on, since the PowerManager clears it by itself
+     * after a timeout.
+     */
+    synchronized void preventScreenOn(boolean prevent) {
+        if (!prevent && !mPreventScreenOn) {
+            mSkipped[OP_PREVENT_SCREEN_ON]++;
+            return;
+        }
+        mIssued[OP_PREVENT_SCREEN_ON]++;
+        try {
+            mPowerManagerService.preventScreenOn(prevent);
+        } catch (RemoteException e) {
+            Log.w(LOG_TAG, "mPowerManagerService.preventScreenOn() failed: " + e);
+        }
+        mPreventScreenOn = prevent;
+    }
+
+    /**
+     * Pokes the PowerManager's userActivity method, at the end of the
+     * looper turn; several pokes in one turn count as one.
+     */
+    synchronized void pokeUserActivity() {
+        if (mUserActivityPending) {
+            mCoalesced[OP_USER_ACTIVITY]++;
+            return;
+        }
+        mUserActivityPending = true;
+        scheduleApply();
+    }
+
+    /**
+     * If we are not currently keeping the screen on, then poke the power
+     * manager to wake up the screen for the user activity timeout duration.
+     */
+    synchronized void wakeUpScreen() {
+        if (mRequestedWakeState == PhoneApp.WakeState.SLEEP) {
+            if (DBG) log("pulse screen lock");
+            mIssued[OP_USER_ACTIVITY]++;
+            try {
+                mPowerManagerService.userActivityWithForce(SystemClock.uptimeMillis(), false, true);
+            } catch (RemoteException ex) {
+                // Ignore -- the system process is dead.
+            }
+        }
+    }
+
+    synchronized void clearUserActivityTimeout(long timeout) {
+        mIssued[OP_USER_ACTIVITY]++;
+        try {
+            mPowerManagerService.clearUserActivityTimeout(SystemClock.uptimeMillis(), timeout);
+        } catch (RemoteException ex) {
+            // System process is dead.
+        }
+    }
+
+    private void scheduleApply() {
+        if (!mApplyScheduled) {
+            mApplyScheduled = true;
+            mHandler.post(mApplyRunnable);
+        }
+    }
+
+    private synchronized void applyPending() {
+        mApplyScheduled = false;
+
+        if (mRequestedWakeState != mWakeState) {
+            applyWakeState(mRequestedWakeState);
+        }
+
+        if (mRequestedPokeLock != mPokeLock) {
+            mIssued[OP_POKE_LOCK]++;
+            try {
+                mPowerManagerService.setPokeLock(mRequestedPokeLock, mPokeLockToken,
+                        PhoneApp.LOG_TAG);
+            } catch (RemoteException e) {
+                Log.w(LOG_TAG, "mPowerManagerService.setPokeLock() failed: " + e);
+            }
+            mPokeLock = mRequestedPokeLock;
+        }
+
+        if (mUserActivityPending) {
+            mUserActivityPending = false;
+            mIssued[OP_USER_ACTIVITY]++;
+            try {
+                mPowerManagerService.userActivity(SystemClock.uptimeMillis(), false);
+            } catch (RemoteException e) {
+                Log.w(LOG_TAG, "mPowerManagerService.userActivity() failed: " + e);
+            }
+        }
+    }
+
+    private void applyWakeState(PhoneApp.WakeState ws) {
+        if (DBG) log("applyWakeState: " + mWakeState + " -> " + ws);
+        switch (ws) {
+            case PARTIAL:
+                // acquire the processor wake lock, and release the FULL
+                // lock if it is being held.
+                acquire(mPartialWakeLock);
+                release(mWakeLock);
+                break;
+            case FULL:
+                // acquire the full wake lock, and release the PARTIAL
+                // lock if it is being held.
+                acquire(mWakeLock);
+                release(mPartialWakeLock);
+                break;
+            case SLEEP:
+            default:
+                // release both the PARTIAL and FULL locks.
+                release(mWakeLock);
+                release(mPartialWakeLock);
+                break;
+        }
+        mWakeState = ws;
+    }
+
+    private void acquire(PowerManager.WakeLock lock) {
+        if (!lock.isHeld()) {
+            mIssued[OP_WAKE_LOCK]++;
+            lock.acquire();
+        }
+    }
+
+    private void release(PowerManager.WakeLock lock) {
+        if (lock.isHeld()) {
+            mIssued[OP_WAKE_LOCK]++;
+            lock.release();
+        }
+    }
+
+    /**
+     * Prints per-operation counts of PowerManager IPCs issued, requests
+     * dropped because they didn't change anything, and requests that
+     * were overridden within the same looper turn.
+     */
+    synchronized void dump(PrintWriter pw) {
+        pw.println("Power state controller:");
+        pw.println("  wakeState=" + mWakeState + " requested=" + mRequestedWakeState
+                + " pokeLock=0x" + Integer.toHexString(mPokeLock)
+                + " preventScreenOn=" + mPreventScreenOn);
+        for (int i = 0; i < NUM_OPS; i++) {
+            pw.println("  " + OP_NAMES[i] + ": issued=" + mIssued[i]
+                    + " skipped=" + mSkipped[i]
+                    + " coalesced=" + mCoalesced[i]);
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
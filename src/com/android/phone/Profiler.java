@@ -16,6 +16,7 @@
 
 package com.android.phone;
 
+import android.os.Debug;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
@@ -39,6 +40,7 @@ public class Profiler {
     static long sTimeCallScreenRequested;
     static long sTimeCallScreenOnCreate;
     static long sTimeCallScreenCreated;
+    static long sTimeCallScreenFirstFrame;
 
     // TODO: Clean up any usage of these times.  (There's no "incoming call
     // panel" in the Phone UI any more; incoming calls just go straight to the
@@ -77,10 +79,33 @@ public class Profiler {
     static void callScreenCreated() {
         if (PROFILE) {
             sTimeCallScreenCreated = SystemClock.uptimeMillis();
+            sTimeCallScreenFirstFrame = 0;
             dumpCallScreenStat();
         }
     }
 
+    /**
+     * Called when the in-call UI first gains window focus, which is right
+     * after its first frame is drawn.  Only the first call after each
+     * callScreenCreated() is recorded.
+     */
+    static void callScreenFirstFrame() {
+        if (PROFILE) {
+            if (sTimeCallScreenFirstFrame == 0) {
+                sTimeCallScreenFirstFrame = SystemClock.uptimeMillis();
+                log(">>> onCreate -> first frame = " +
+                        (sTimeCallScreenFirstFrame - sTimeCallScreenOnCreate)
+                        + " (request -> first frame = "
+                        + (sTimeCallScreenFirstFrame - sTimeCallScreenRequested)
+                        + ", prewarmed = "
+                        + PhoneApp.getInstance().isInCallScreenPrewarmed() + ")");
+                Runtime runtime = Runtime.getRuntime();
+                log(">>> heap: dalvik = " + (runtime.totalMemory() - runtime.freeMemory())
+                        + ", native = " + Debug.getNativeHeapAllocatedSize());
+            }
+        }
+    }
+
     private static void dumpCallScreenStat() {
         if (PROFILE) {
             log(">>> call screen perf stats <<<");
@@ -124,6 +124,7 @@ public class Ringer {
         if (DBG) log("ring()...");
 
         synchronized (this) {
+            CallStateRecorder.record(CallStateRecorder.EVENT_RINGER_START);
             try {
                 if (PhoneApp.getInstance().showBluetoothIndication()) {
                     mPowerManager.setAttentionLight(true, 0x000000ff);
@@ -186,6 +187,7 @@ public class Ringer {
     void stopRing() {
         synchronized (this) {
             if (DBG) log("stopRing()...");
+            CallStateRecorder.record(CallStateRecorder.EVENT_RINGER_STOP);
 
             try {
                 mPowerManager.setAttentionLight(false, 0x00000000);
@@ -168,6 +168,9 @@ public class Settings extends PreferenceActivity implements DialogInterface.OnCl
     protected void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
+        // The preference defaults are set in the deferred startup phase.
+        PhoneApp.getInstance().ensureStartupComplete();
+
         addPreferencesFromResource(R.xml.network_setting);
 
         mPhone = PhoneFactory.getDefaultPhone();
@@ -42,6 +42,13 @@ public class SpecialCharSequenceMgr {
 
     private static final String MMI_IMEI_DISPLAY = "*#06#";
 
+    // The kinds of special sequences, as returned by classify().
+    private static final int SEQUENCE_NONE = 0;
+    private static final int SEQUENCE_IMEI_DISPLAY = 1;
+    private static final int SEQUENCE_PIN_ENTRY = 2;
+    private static final int SEQUENCE_ADN_ENTRY = 3;
+    private static final int SEQUENCE_SECRET_CODE = 4;
+
     /** This class is never instantiated. */
     private SpecialCharSequenceMgr() {
     }
@@ -85,11 +92,15 @@ public class SpecialCharSequenceMgr {
         //get rid of the separators so that the string gets parsed correctly
         String dialString = PhoneNumberUtils.stripSeparators(input);
 
-        if (handleIMEIDisplay(context, dialString)
-            || handlePinEntry(context, dialString, pukInputActivity)
-            || handleAdnEntry(context, dialString)
-            || handleSecretCode(context, dialString)) {
-            return true;
+        switch (classify(dialString)) {
+            case SEQUENCE_IMEI_DISPLAY:
+                return handleIMEIDisplay(context, dialString);
+            case SEQUENCE_PIN_ENTRY:
+                return handlePinEntry(context, dialString, pukInputActivity);
+            case SEQUENCE_ADN_ENTRY:
+                return handleAdnEntry(context, dialString);
+            case SEQUENCE_SECRET_CODE:
+                return handleSecretCode(context, dialString);
         }
 
         return false;
@@ -115,13 +126,74 @@ public class SpecialCharSequenceMgr {
         // your phone, and need to change the PIN!  The only way to do
         // that is via the Emergency Dialer.)
 
-        if (handlePinEntry(context, dialString, pukInputActivity)) {
-            return true;
+        if (classify(dialString) == SEQUENCE_PIN_ENTRY) {
+            return handlePinEntry(context, dialString, pukInputActivity);
         }
 
         return false;
     }
 
+    /**
+     * Determines which kind of special sequence (if any) a dial string
+     * is, without any string copies or scanning: these are called on
+     * every keystroke in the dialers, and almost every dial string is
+     * rejected by its first character or its length.
+     *
+     * The sequences are mutually exclusive, so at most one handler ever
+     * needs to run:
+     *   *#06#           IMEI / MEID display
+     *   **04...#        PIN change (and **05...# PUK unblock) MMI codes
+     *   N#, NN#, NNN#   ADN (SIM contact) entry by index
+     *   *#*#<code>#*#*  secret codes
+     *
+     * @param dialString the input with separators already stripped.
+     * @return one of the SEQUENCE_* constants.
+     */
+    private static int classify(String dialString) {
+        final int len = dialString.length();
+        if (len < 2 || dialString.charAt(len - 1) != '#') {
+            // Every special sequence ends with '#', except secret codes.
+            if (len > 8 && dialString.charAt(len - 1) == '*') {
+                return isSecretCode(dialString) ? SEQUENCE_SECRET_CODE : SEQUENCE_NONE;
+            }
+            return SEQUENCE_NONE;
+        }
+
+        char c = dialString.charAt(0);
+        if (c >= '0' && c <= '9') {
+            // ADN entries are of the form "N(N)(N)#".
+            if (len > 4) return SEQUENCE_NONE;
+            for (int i = 1; i < len - 1; i++) {
+                c = dialString.charAt(i);
+                if (c < '0' || c > '9') return SEQUENCE_NONE;
+            }
+            return SEQUENCE_ADN_ENTRY;
+        }
+        if (c != '*' || len < 5) {
+            return SEQUENCE_NONE;
+        }
+        if (dialString.charAt(1) == '*') {
+            // TODO: The string constants here should be removed in favor
+            // of some call to a static the MmiCode class that determines
+            // if a dialstring is an MMI code.
+            c = dialString.charAt(3);
+            return (dialString.charAt(2) == '0' && (c == '4' || c == '5'))
+                    ? SEQUENCE_PIN_ENTRY : SEQUENCE_NONE;
+        }
+        if (len == MMI_IMEI_DISPLAY.length() && dialString.equals(MMI_IMEI_DISPLAY)) {
+            return SEQUENCE_IMEI_DISPLAY;
+        }
+        return SEQUENCE_NONE;
+    }
+
+    /**
+     * @return true if the (separator-stripped) input is of the form
+     *     *#*#<code>#*#*, with a non-empty code.
+     */
+    private static boolean isSecretCode(String input) {
+        return input.length() > 8 && input.startsWith("*#*#") && input.endsWith("#*#*");
+    }
+
     /**
      * Handles secret codes to launch arbitrary activities in the form of *#*#<code>#*#*.
      * If a secret code is encountered an Intent is started with the android_secret_code://<code>
@@ -134,7 +206,7 @@ public class SpecialCharSequenceMgr {
     static private boolean handleSecretCode(Context context, String input) {
         // Secret codes are in the form *#*#<code>#*#*
         int len = input.length();
-        if (len > 8 && input.startsWith("*#*#") && input.endsWith("#*#*")) {
+        if (isSecretCode(input)) {
             Intent intent = new Intent(Intents.SECRET_CODE_ACTION,
                     Uri.parse("android_secret_code://" + input.substring(4, len - 4)));
             context.sendBroadcast(intent);
@@ -175,9 +247,7 @@ public class SpecialCharSequenceMgr {
 
     static private boolean handlePinEntry(Context context, String input,
                                           Activity pukInputActivity) {
-        // TODO: The string constants here should be removed in favor
-        // of some call to a static the MmiCode class that determines
-        // if a dialstring is an MMI code.
+        // See classify() for the TODO about these string constants.
         if ((input.startsWith("**04") || input.startsWith("**05"))
                 && input.endsWith("#")) {
             PhoneApp app = PhoneApp.getInstance();
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.telephony.PhoneNumberUtils;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+// Checks that EmergencyNumberMatcher agrees with PhoneNumberUtils, and
+// benchmarks the two against each other.
+// See AndroidManifest.xml how to run these tests.
+public class EmergencyNumberMatcherTest extends AndroidTestCase {
+    private static final String TAG = "EmergencyNumberMatcherTest";
+    private static final int ITERATIONS = 10000;
+
+    private static final String[] NUMBERS = {
+        null, "", "1", "11", "112", "1120", "911", "9110", "91", "999", "000",
+        "08", "110", "119", "118", "+112", "911,123", "9-1-1", "(911)",
+        "6505551212", "+16505551212", "*67911", "#31#911", "112;ext",
+        "911@example.com", "sip:911@example.com",
+    };
+
+    // Checks the matcher gives the same answers as PhoneNumberUtils, for
+    // whatever ECC list the device has.
+    @SmallTest
+    public void testMatchesPhoneNumberUtils() throws Exception {
+        for (String number : NUMBERS) {
+            assertEquals("number: " + number,
+                    PhoneNumberUtils.isEmergencyNumber(number),
+                    EmergencyNumberMatcher.isEmergencyNumber(number));
+        }
+    }
+
+    @LargeTest
+    public void testBenchmark() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            PhoneNumberUtils.isEmergencyNumber(NUMBERS[i % NUMBERS.length]);
+        }
+        long phoneNumberUtilsNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            EmergencyNumberMatcher.isEmergencyNumber(NUMBERS[i % NUMBERS.length]);
+        }
+        long matcherNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "isEmergencyNumber, avg ns per call: PhoneNumberUtils="
+                + (phoneNumberUtilsNanos / ITERATIONS)
+                + " EmergencyNumberMatcher=" + (matcherNanos / ITERATIONS));
+    }
+}
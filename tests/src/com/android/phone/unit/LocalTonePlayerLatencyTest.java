@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.KeyEvent;
+
+// Benchmark of the key-down to local tone start latency, with the warm
+// shared LocalTonePlayer versus a ToneGenerator created per key press.
+// Drives synthetic key events on the main thread, and logs the results.
+// See AndroidManifest.xml how to run these tests.
+public class LocalTonePlayerLatencyTest extends InstrumentationTestCase {
+    private static final String TAG = "LocalTonePlayerLatencyTest";
+    private static final int KEY_PRESSES = 50;
+    private static final int TONE_LENGTH_MS = 20;
+
+    private LocalTonePlayer mPlayer;
+    private long mWarmTotal;
+    private long mColdTotal;
+    private int mWarmStarted;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                mPlayer = new LocalTonePlayer(AudioManager.STREAM_DTMF, 80);
+            }
+        });
+    }
+
+    @LargeTest
+    public void testKeyDownToToneLatency() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                mPlayer.acquire();
+                for (int i = 0; i < KEY_PRESSES; i++) {
+                    KeyEvent event = syntheticKeyDown(i);
+                    mPlayer.noteKeyDown(event.getEventTime());
+                    if (mPlayer.startTone(ToneGenerator.TONE_DTMF_0 + (i % 10),
+                            TONE_LENGTH_MS)) {
+                        mWarmStarted++;
+                    }
+                    mWarmTotal += SystemClock.uptimeMillis() - event.getEventTime();
+                    mPlayer.stopTone();
+                }
+                mPlayer.release();
+
+                // The old behavior: a generator created for the key press.
+                for (int i = 0; i < KEY_PRESSES; i++) {
+                    KeyEvent event = syntheticKeyDown(i);
+                    ToneGenerator generator = new ToneGenerator(AudioManager.STREAM_DTMF, 80);
+                    generator.startTone(ToneGenerator.TONE_DTMF_0 + (i % 10), TONE_LENGTH_MS);
+                    mColdTotal += SystemClock.uptimeMillis() - event.getEventTime();
+                    generator.release();
+                }
+            }
+        });
+
+        Log.i(TAG, "key down to tone start, avg ms: warm=" + ((float) mWarmTotal / KEY_PRESSES)
+                + " cold=" + ((float) mColdTotal / KEY_PRESSES));
+        assertEquals(KEY_PRESSES, mWarmStarted);
+    }
+
+    private static KeyEvent syntheticKeyDown(int i) {
+        long now = SystemClock.uptimeMillis();
+        return new KeyEvent(now, now, KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_0 + (i % 10), 0);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.telephony.ServiceState;
+import android.telephony.TelephonyManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.Phone;
+
+// Checks that PhoneStateSnapshot values are self-consistent, including
+// when published through a volatile reference (the way
+// PhoneInterfaceManager does) while other threads read them.
+// See AndroidManifest.xml how to run these tests.
+public class PhoneStateSnapshotTest extends AndroidTestCase {
+    private static final int READERS = 4;
+    private static final int PUBLISHES = 100000;
+
+    private static final Phone.State[] STATES = {
+        Phone.State.IDLE, Phone.State.RINGING, Phone.State.OFFHOOK
+    };
+
+    private volatile PhoneStateSnapshot mState;
+    private volatile boolean mDone;
+    private volatile String mFailure;
+
+    @SmallTest
+    public void testDerivedValues() throws Exception {
+        PhoneStateSnapshot s = newSnapshot(1, Phone.State.RINGING);
+        assertEquals(TelephonyManager.CALL_STATE_RINGING, s.callState);
+        assertTrue(s.isRinging());
+        assertFalse(s.isIdle());
+        assertFalse(s.isOffhook());
+        assertEquals(TelephonyManager.NETWORK_TYPE_UMTS, s.networkType);
+        assertEquals(TelephonyManager.NETWORK_TYPE_UNKNOWN,
+                PhoneStateSnapshot.getNetworkType(ServiceState.RADIO_TECHNOLOGY_UNKNOWN));
+    }
+
+    // One writer publishes snapshots as fast as it can while several
+    // readers check that every snapshot they see is consistent, and that
+    // they never see an older snapshot after a newer one.
+    @LargeTest
+    public void testConcurrentReaders() throws Exception {
+        mState = newSnapshot(0, Phone.State.IDLE);
+
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    long lastSerial = -1;
+                    while (!mDone && mFailure == null) {
+                        PhoneStateSnapshot s = mState;
+                        if (s.serial < lastSerial) {
+                            mFailure = "serial went back from " + lastSerial + " to " + s.serial;
+                        }
+                        lastSerial = s.serial;
+                        checkConsistent(s);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+
+        for (int i = 1; i <= PUBLISHES && mFailure == null; i++) {
+            mState = newSnapshot(i, STATES[i % STATES.length]);
+        }
+        mDone = true;
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(mFailure, mFailure);
+    }
+
+    private void checkConsistent(PhoneStateSnapshot s) {
+        // newSnapshot() derives everything from the serial, so all the
+        // values of a snapshot must agree with it.
+        Phone.State expected = STATES[(int) (s.serial % STATES.length)];
+        if (s.serial != 0 && s.state != expected) {
+            mFailure = "#" + s.serial + ": state " + s.state;
+        } else if (s.isIdle() != (s.callState == TelephonyManager.CALL_STATE_IDLE)
+                || s.isRinging() != (s.callState == TelephonyManager.CALL_STATE_RINGING)
+                || s.isOffhook() != (s.callState == TelephonyManager.CALL_STATE_OFFHOOK)) {
+            mFailure = "#" + s.serial + ": callState " + s.callState + " vs " + s.state;
+        } else if (s.dataActivity != (int) (s.serial & 3)
+                || !String.valueOf(s.serial).equals(s.eriText)) {
+            mFailure = "#" + s.serial + ": torn snapshot " + s;
+        }
+    }
+
+    private static PhoneStateSnapshot newSnapshot(long serial, Phone.State state) {
+        return new PhoneStateSnapshot(serial, state, TelephonyManager.DATA_CONNECTED,
+                (int) (serial & 3), ServiceState.RADIO_TECHNOLOGY_UMTS, Phone.PHONE_TYPE_CDMA,
+                true, (int) serial, 0, String.valueOf(serial));
+    }
+}